@@ -69,6 +69,10 @@ public class RabbitMQ
 
     public static final String DEFAULT_TOPIC = "amq.topic";
     public static final Charset UTF8 = Charset.forName( "UTF-8" );
+    /**
+     * The largest prefetch count, AMQP limits it to an unsigned short
+     */
+    public static final int MAX_PREFETCH = 65535;
 
     /**
      * Function to convert a byte[] to a String using UTF-8
@@ -575,6 +579,58 @@ public class RabbitMQ
         return properties;
     }
 
+    /**
+     * Create properties to set the number of messages prefetched from the broker for a queue stream.
+     * <p>
+     * By default only one message is fetched at a time. With more, a parallel stream can process them concurrently but
+     * note that a message is acknowledged once it's been passed to the stream, so up to this many messages can be lost
+     * if the application terminates.
+     * <p>
+     * @param prefetch number of messages, between 1 and {@link #MAX_PREFETCH}
+     * <p>
+     * @return Map
+     * <p>
+     * @throws IllegalArgumentException if prefetch is out of range
+     */
+    public static Map<String, Object> prefetch( int prefetch )
+    {
+        return prefetch( new HashMap<>(), prefetch );
+    }
+
+    /**
+     * Create properties to set the number of messages prefetched from the broker for a queue stream.
+     * <p>
+     * @param properties Existing properties map
+     * @param prefetch   number of messages, between 1 and {@link #MAX_PREFETCH}
+     * <p>
+     * @return Map
+     * <p>
+     * @throws IllegalArgumentException if prefetch is out of range
+     */
+    public static Map<String, Object> prefetch( Map<String, Object> properties, int prefetch )
+    {
+        Objects.requireNonNull( properties );
+        properties.put( "internal-prefetch", checkPrefetch( prefetch ) );
+        return properties;
+    }
+
+    /**
+     * Ensure a prefetch count is valid
+     * <p>
+     * @param prefetch number of messages
+     * <p>
+     * @return prefetch
+     * <p>
+     * @throws IllegalArgumentException if prefetch is out of range
+     */
+    static int checkPrefetch( int prefetch )
+    {
+        if( prefetch < 1 || prefetch > MAX_PREFETCH ) {
+            throw new IllegalArgumentException( "prefetch must be between 1 and " + MAX_PREFETCH + ", got " + prefetch );
+        }
+        return prefetch;
+    }
+
     /**
      * Set the queue Time To Live value.
      * <p>
@@ -28,7 +28,7 @@ import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import uk.trainwatch.util.BlockingSupplier;
-import uk.trainwatch.util.BlockingSupplierConsumer;
+import uk.trainwatch.util.RingBuffer;
 import uk.trainwatch.util.DaemonThreadFactory;
 
 /**
@@ -58,13 +58,17 @@ public class RabbitSupplier
     private final long parkDelay;
     private final String parkQueueName;
     private final Map<String, Object> queueProperties;
+    /**
+     * Number of unacknowledged messages the broker will send us, also the number we hold for the stream
+     */
+    private final int prefetch;
     private Channel channel;
     private QueueingConsumer consumer;
     private volatile boolean running;
     /**
-     * Only allow a single message to be queued
+     * Only allow prefetch messages to be queued, by default 1
      */
-    private final BlockingSupplierConsumer<byte[]> supplier;
+    private final RingBuffer<byte[]> supplier;
     private final Consumer<Delivery> optionalConsumer;
     private Thread thread;
 
@@ -80,7 +84,6 @@ public class RabbitSupplier
         this.durable = durable;
 
         this.optionalConsumer = optionalConsumer;
-        supplier = optionalConsumer == null ? new BlockingSupplierConsumer<>( 1 ) : null;
 
         if( durable ) {
             this.queueProperties = queueProperties == null ? new HashMap<>() : queueProperties;
@@ -92,6 +95,15 @@ public class RabbitSupplier
             this.queueProperties = (queueProperties == null || queueProperties.isEmpty()) ? null : queueProperties;
         }
 
+        // Number of messages to prefetch
+        if( this.queueProperties != null && this.queueProperties.containsKey( "internal-prefetch" ) ) {
+            prefetch = RabbitMQ.checkPrefetch( toInt( this.queueProperties.remove( "internal-prefetch" ) ) );
+        }
+        else {
+            prefetch = 1;
+        }
+        supplier = optionalConsumer == null ? new RingBuffer<>( prefetch, RingBuffer.ProducerType.SINGLE, RingBuffer.WaitStrategy.PARK ) : null;
+
         // Enable parking
         if( this.queueProperties != null && this.queueProperties.containsKey( "internal-park-queue" ) ) {
             parked = true;
@@ -105,6 +117,26 @@ public class RabbitSupplier
         }
     }
 
+    /**
+     * Convert a property to an int. Properties may come from configuration so accept any Number or a String.
+     */
+    private static int toInt( Object v )
+    {
+        if( v instanceof Number ) {
+            long l = ((Number) v).longValue();
+            return l > Integer.MAX_VALUE ? Integer.MAX_VALUE : l < Integer.MIN_VALUE ? Integer.MIN_VALUE : (int) l;
+        }
+        if( v instanceof String ) {
+            try {
+                return Integer.parseInt( ((String) v).trim() );
+            }
+            catch( NumberFormatException ex ) {
+                throw new IllegalArgumentException( "internal-prefetch is not a number: " + v, ex );
+            }
+        }
+        throw new IllegalArgumentException( "internal-prefetch is not a number: " + v );
+    }
+
     @Override
     public void setInvalid()
     {
@@ -203,7 +235,7 @@ public class RabbitSupplier
 
         // When declaring the queue, if we are durable then don't auto-delete, but auto-delete when we're not
         channel.queueDeclare( queueName, durable, false, !durable, queueProperties );
-        channel.basicQos( 1 );
+        channel.basicQos( prefetch );
 
         LOG.log( Level.FINE, () -> "Creating consumer on " + queueName );
         consumer = new QueueingConsumer( channel );
@@ -271,6 +303,12 @@ public class RabbitSupplier
         return supplier.get();
     }
 
+    @Override
+    public byte[] poll()
+    {
+        return supplier.poll();
+    }
+
     @Override
     public int hashCode()
     {
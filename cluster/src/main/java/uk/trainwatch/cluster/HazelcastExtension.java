@@ -24,8 +24,11 @@ import java.io.PrintWriter;
 import java.io.UncheckedIOException;
 import java.net.URL;
 import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.cache.CacheManager;
 import javax.cache.Caching;
 import javax.cache.spi.CachingProvider;
 import javax.enterprise.event.Observes;
@@ -33,11 +36,17 @@ import javax.enterprise.inject.spi.AfterBeanDiscovery;
 import javax.enterprise.inject.spi.BeforeBeanDiscovery;
 import javax.enterprise.inject.spi.BeforeShutdown;
 import javax.enterprise.inject.spi.Extension;
+import com.hazelcast.cache.HazelcastCacheManager;
+import uk.trainwatch.util.DaemonThreadFactory;
 import uk.trainwatch.util.ResourceFinder;
 import uk.trainwatch.util.Streams;
 
 /**
  * Extension to manage our dynamic Hazelcast config
+ * <p>
+ * Normally Hazelcast is started during CDI boot which then waits for it to join the cluster. If the
+ * {@link #HAZELCAST_ASYNC} system property is true then Hazelcast is started in the background instead and
+ * {@link #getCacheManager()} returns a {@link LazyCacheManager} which only blocks when it's first used.
  *
  * @author peter
  */
@@ -49,6 +58,11 @@ public class HazelcastExtension
 
     public static final String HAZELCAST_CONFIG_LOCATION = "hazelcast.config.location";
 
+    /**
+     * System property, if true Hazelcast is started in the background
+     */
+    public static final String HAZELCAST_ASYNC = "uk.trainwatch.cluster.async";
+
     private static final String HAZELCAST_START = "<hazelcast>";
     private static final String HAZELCAST_END = "</hazelcast>";
 
@@ -56,6 +70,10 @@ public class HazelcastExtension
 
     private CachingProvider provider;
 
+    private CompletableFuture<CacheManager> startup;
+    private CacheManager cacheManager;
+    private volatile long startupTime = -1L;
+
     @SuppressWarnings("unchecked")
     public void beforeBeanDiscovery( @Observes BeforeBeanDiscovery type )
     {
@@ -108,19 +126,87 @@ public class HazelcastExtension
         LOG.log( Level.INFO, "Getting CachingProvider" );
         provider = Caching.getCachingProvider();
 
-        // Obtain the CacheManager - this will force Hazelcast to start up.
+        if( Boolean.getBoolean( HAZELCAST_ASYNC ) ) {
+            LOG.log( Level.INFO, "Starting Hazelcast in the background" );
+            startup = CompletableFuture.supplyAsync( this::startCacheManager, DaemonThreadFactory.INSTANCE.getCachedExecutor() );
+            startup.whenComplete( ( cm, ex ) -> {
+                if( ex != null ) {
+                    LOG.log( Level.SEVERE, "Hazelcast failed to start", ex );
+                }
+            } );
+            cacheManager = new LazyCacheManager( provider, startup );
+        }
+        else {
+            cacheManager = startCacheManager();
+            startup = CompletableFuture.completedFuture( cacheManager );
+        }
+    }
+
+    private CacheManager startCacheManager()
+    {
+        final long start = System.nanoTime();
+
+        // Obtain the CacheManager - this will force Hazelcast to start up and join the cluster.
         // We'll report the available cache names anyhow
         LOG.log( Level.INFO, "Getting CacheManager" );
-        provider.getCacheManager().
-                getCacheNames().
+        CacheManager cm = provider.getCacheManager();
+        startupTime = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+
+        cm.getCacheNames().
                 forEach( cacheName -> LOG.log( Level.INFO, () -> "Found cache: " + cacheName ) );
 
-        LOG.log( Level.INFO, "Hazelcast & JCache started" );
+        int members = cm.unwrap( HazelcastCacheManager.class ).
+                getHazelcastInstance().
+                getCluster().
+                getMembers().
+                size();
+
+        LOG.log( Level.INFO, () -> "Hazelcast & JCache started and joined cluster of " + members + " members in " + startupTime + "ms" );
+        return cm;
+    }
+
+    /**
+     * The JCache CacheManager.
+     * <p>
+     * If Hazelcast is being started in the background this will be a {@link LazyCacheManager} which blocks when first used
+     * until Hazelcast has started.
+     * <p>
+     * @return CacheManager
+     */
+    public CacheManager getCacheManager()
+    {
+        return cacheManager;
+    }
+
+    /**
+     * Has Hazelcast started
+     * <p>
+     * @return true if started or failed to start
+     */
+    public boolean isStarted()
+    {
+        return startup != null && startup.isDone();
+    }
+
+    /**
+     * How long it took Hazelcast to start and join the cluster
+     * <p>
+     * @return time in milliseconds, -1 if not yet started
+     */
+    public long getStartupTime()
+    {
+        return startupTime;
     }
 
     public void beforeShutdown( @Observes BeforeShutdown type )
     {
         if( provider != null ) {
+            // Don't close whilst still starting up
+            if( startup != null && !startup.isDone() ) {
+                LOG.log( Level.INFO, "Waiting for Hazelcast to finish starting before shutdown" );
+                startup.handle( ( cm, ex ) -> cm ).
+                        join();
+            }
             provider.close();
         }
     }
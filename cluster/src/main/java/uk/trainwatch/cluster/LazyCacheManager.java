@@ -0,0 +1,188 @@
+/*
+ * Copyright 2015 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.cluster;
+
+import java.net.URI;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import javax.cache.Cache;
+import javax.cache.CacheException;
+import javax.cache.CacheManager;
+import javax.cache.configuration.Configuration;
+import javax.cache.spi.CachingProvider;
+
+/**
+ * A {@link CacheManager} which delegates to one that is still being started in the background.
+ * <p>
+ * Any call will block until the underlying CacheManager is available, so nothing blocks unless the cluster is actually
+ * used.
+ * <p>
+ * @author peter
+ */
+public class LazyCacheManager
+        implements CacheManager
+{
+
+    private final CachingProvider provider;
+    private final CompletableFuture<CacheManager> cacheManager;
+
+    public LazyCacheManager( CachingProvider provider, CompletableFuture<CacheManager> cacheManager )
+    {
+        this.provider = provider;
+        this.cacheManager = cacheManager;
+    }
+
+    /**
+     * Has the underlying CacheManager started
+     * <p>
+     * @return true if started or failed to start
+     */
+    public boolean isStarted()
+    {
+        return cacheManager.isDone();
+    }
+
+    /**
+     * Did the underlying CacheManager fail to start
+     * <p>
+     * @return true if it failed, in which case any call needing it will throw {@link CacheException}
+     */
+    public boolean isFailed()
+    {
+        return cacheManager.isCompletedExceptionally();
+    }
+
+    /**
+     * Get the underlying CacheManager, waiting for it to start if required
+     * <p>
+     * @return CacheManager
+     * <p>
+     * @throws CacheException if it failed to start or we were interrupted whilst waiting
+     */
+    public CacheManager getDelegate()
+    {
+        try {
+            return cacheManager.get();
+        }
+        catch( InterruptedException ex ) {
+            Thread.currentThread().interrupt();
+            throw new CacheException( "Interrupted waiting for CacheManager", ex );
+        }
+        catch( ExecutionException ex ) {
+            throw new CacheException( "CacheManager failed to start", ex.getCause() );
+        }
+    }
+
+    @Override
+    public CachingProvider getCachingProvider()
+    {
+        return provider;
+    }
+
+    @Override
+    public URI getURI()
+    {
+        return getDelegate().getURI();
+    }
+
+    @Override
+    public ClassLoader getClassLoader()
+    {
+        return getDelegate().getClassLoader();
+    }
+
+    @Override
+    public Properties getProperties()
+    {
+        return getDelegate().getProperties();
+    }
+
+    @Override
+    public <K, V, C extends Configuration<K, V>> Cache<K, V> createCache( String cacheName, C configuration )
+            throws IllegalArgumentException
+    {
+        return getDelegate().createCache( cacheName, configuration );
+    }
+
+    @Override
+    public <K, V> Cache<K, V> getCache( String cacheName, Class<K> keyType, Class<V> valueType )
+    {
+        return getDelegate().getCache( cacheName, keyType, valueType );
+    }
+
+    @Override
+    public <K, V> Cache<K, V> getCache( String cacheName )
+    {
+        return getDelegate().getCache( cacheName );
+    }
+
+    @Override
+    public Iterable<String> getCacheNames()
+    {
+        return getDelegate().getCacheNames();
+    }
+
+    @Override
+    public void destroyCache( String cacheName )
+    {
+        getDelegate().destroyCache( cacheName );
+    }
+
+    @Override
+    public void enableManagement( String cacheName, boolean enabled )
+    {
+        getDelegate().enableManagement( cacheName, enabled );
+    }
+
+    @Override
+    public void enableStatistics( String cacheName, boolean enabled )
+    {
+        getDelegate().enableStatistics( cacheName, enabled );
+    }
+
+    /**
+     * Close the underlying CacheManager, waiting for it to start if required. Does nothing if it failed to start.
+     */
+    @Override
+    public void close()
+    {
+        if( !isFailed() ) {
+            getDelegate().close();
+        }
+    }
+
+    /**
+     * Never blocks or throws, so is false whilst the underlying CacheManager is starting or if it failed to start.
+     * <p>
+     * @return true if the underlying CacheManager has started and since been closed
+     */
+    @Override
+    public boolean isClosed()
+    {
+        return isStarted() && !isFailed() && getDelegate().isClosed();
+    }
+
+    @Override
+    public <T> T unwrap( Class<T> clazz )
+    {
+        if( clazz.isAssignableFrom( getClass() ) ) {
+            return clazz.cast( this );
+        }
+        return getDelegate().unwrap( clazz );
+    }
+
+}
@@ -5,14 +5,33 @@
  */
 package uk.trainwatch.util.cache;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.SoftReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.sql.SQLException;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.chrono.ChronoLocalDateTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
@@ -20,6 +39,8 @@ import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collector;
+import uk.trainwatch.io.format.DataReader;
+import uk.trainwatch.io.format.DataWriter;
 import uk.trainwatch.util.DaemonThreadFactory;
 import uk.trainwatch.util.Functions;
 import uk.trainwatch.util.sql.ConcurrentSQLHashMap;
@@ -32,12 +53,22 @@ import uk.trainwatch.util.sql.SQLSupplier;
 /**
  * A Cache backed by a {@link ConcurrentSQLHashMap} which with expire entries based on age and maximum cache size.
  * <p>
+ * The cache can optionally be bounded by weight instead of, or as well as, by the number of entries. A {@link Weigher}
+ * calculates the weight of each entry, e.g. it's estimated size in bytes, and when the total weight exceeds the maximum
+ * the oldest entries are evicted.
+ * <p>
+ * Values can also be held off the java heap in an {@link OffHeapStore}, see
+ * {@link #setOffHeap(uk.trainwatch.util.cache.OffHeapStore, uk.trainwatch.util.cache.CacheCodec, int)}.
+ * <p>
+ * The contents of a cache can be written to disk and reloaded on startup so a restarted application doesn't start with
+ * an empty cache, see {@link #warmStart(java.nio.file.Path, uk.trainwatch.util.cache.CacheCodec, uk.trainwatch.util.cache.CacheCodec)}.
+ * <p>
  * @param <K>
  * @param <V> <p>
  * @author Peter T Mount
  */
 public class Cache<K, V>
-
+        implements AutoCloseable
 {
 
     private static final Logger LOG = Logger.getLogger( Cache.class.getName() );
@@ -50,15 +81,36 @@ public class Cache<K, V>
      * The default max size of 1000 entries
      */
     private static final long DEFAULT_MAX_SIZE = 1000;
+    /**
+     * Identifies a snapshot file and it's format
+     */
+    static final int SNAPSHOT_MAGIC = 0x43534e01;
 
     private final ConcurrentSQLHashMap<K, CacheEntry<K, V>> map = new ConcurrentSQLHashMap<>();
 
     private final long maxSize;
     private final Duration maxAge;
+    private final Weigher<? super K, ? super V> weigher;
+    private final long maxWeight;
+    private final AtomicLong weight = new AtomicLong();
     /**
      * Optional consumer to be notified of evictions
      */
     private BiConsumer<K, V> evicted;
+    /**
+     * Optional off heap storage for values
+     */
+    private OffHeapStore offHeap;
+    private CacheCodec<V> codec;
+    private int hotThreshold;
+    /**
+     * The background task expiring entries by age
+     */
+    private final ScheduledFuture<?> expiry;
+    /**
+     * The shutdown hook writing a snapshot, registered by warmStart
+     */
+    private final AtomicReference<Thread> snapshotHook = new AtomicReference<>();
 
     public Cache()
     {
@@ -76,12 +128,73 @@ public class Cache<K, V>
     }
 
     public Cache( long maxSize, Duration maxAge )
+    {
+        this( maxSize, maxAge, null, Long.MAX_VALUE );
+    }
+
+    /**
+     * Create a cache bounded by weight rather than number of entries
+     * <p>
+     * @param weigher   Weigher to calculate the weight of each entry
+     * @param maxWeight Maximum total weight of the cache
+     * @param maxAge    Maximum age of an entry
+     */
+    public Cache( Weigher<? super K, ? super V> weigher, long maxWeight, Duration maxAge )
+    {
+        this( Long.MAX_VALUE, maxAge, weigher, maxWeight );
+    }
+
+    /**
+     * Create a cache bounded by both the number of entries and by weight
+     * <p>
+     * @param maxSize   Maximum number of entries
+     * @param maxAge    Maximum age of an entry
+     * @param weigher   Weigher to calculate the weight of each entry, null for none
+     * @param maxWeight Maximum total weight of the cache, ignored if weigher is null
+     */
+    public Cache( long maxSize, Duration maxAge, Weigher<? super K, ? super V> weigher, long maxWeight )
     {
         this.maxSize = maxSize;
         this.maxAge = maxAge;
+        this.weigher = weigher;
+        this.maxWeight = maxWeight;
 
         // Expire by age in the background once every minute
-        DaemonThreadFactory.INSTANCE.scheduleAtFixedRate( this::expireByAge, 1L, 1L, TimeUnit.MINUTES );
+        expiry = DaemonThreadFactory.INSTANCE.scheduleAtFixedRate( this::expireByAge, 1L, 1L, TimeUnit.MINUTES );
+    }
+
+    /**
+     * Stop expiring entries in the background and remove all entries, releasing any off heap storage they use.
+     * <p>
+     * A cache that's no longer needed should be closed, otherwise the background task keeps it reachable. This also
+     * removes any shutdown hook registered by {@link #warmStart(java.nio.file.Path, uk.trainwatch.util.cache.CacheCodec, uk.trainwatch.util.cache.CacheCodec)}
+     * so a closed cache will not overwrite it's snapshot.
+     */
+    @Override
+    public void close()
+    {
+        expiry.cancel( false );
+
+        Thread hook = snapshotHook.getAndSet( null );
+        if( hook != null ) {
+            try {
+                Runtime.getRuntime().
+                        removeShutdownHook( hook );
+            }
+            catch( IllegalStateException ex ) {
+                // Already shutting down, the hook will see we are closed
+            }
+        }
+
+        clear();
+    }
+
+    /**
+     * @return true if {@link #close()} has been called
+     */
+    public boolean isClosed()
+    {
+        return expiry.isCancelled();
     }
 
     /**
@@ -96,6 +209,29 @@ public class Cache<K, V>
         this.evicted = evicted;
     }
 
+    /**
+     * Store values off the java heap.
+     * <p>
+     * Values added to the cache after this call will be serialized with the codec into the store and deserialized on
+     * each access, so only the key and a small index entry remain on the heap. If a value cannot be serialized or the
+     * store is full then it is kept on the heap as normal.
+     * <p>
+     * Entries that are accessed frequently can optionally be kept on the heap as well, held by a {@link SoftReference} so
+     * they will still be released under memory pressure.
+     * <p>
+     * Note: If an entry is replaced or evicted whilst it's being read then the read will return null, i.e. a cache miss.
+     * <p>
+     * @param offHeap      Store to hold values, this may be shared between caches
+     * @param codec        Codec to serialize values
+     * @param hotThreshold Number of reads after which a deserialized value is kept on the heap, 0 to never keep them
+     */
+    public void setOffHeap( OffHeapStore offHeap, CacheCodec<V> codec, int hotThreshold )
+    {
+        this.offHeap = offHeap;
+        this.codec = codec;
+        this.hotThreshold = hotThreshold;
+    }
+
     /**
      * Run by the timer, expires all entries if they are old enough.
      */
@@ -114,7 +250,7 @@ public class Cache<K, V>
         expire( expiry );
 
         final long end = size();
-        LOG.log( size != end ? Level.INFO : Level.FINE, () -> "Expired " + (size - end) + " entries. Now have " + end );
+        LOG.log( size != end ? Level.INFO : Level.FINE, () -> "Expired " + (size - end) + " entries. Now have " + getStatistics() );
     }
 
     /**
@@ -124,8 +260,8 @@ public class Cache<K, V>
      */
     private void expire( LocalDateTime expires )
     {
-        if( evicted == null ) {
-            // No notification so use the simple method of expiry
+        if( evicted == null && weigher == null && offHeap == null ) {
+            // No notification, weight or off heap memory to maintain so use the simple method of expiry
             map.values().
                     removeIf( e -> e.isBefore( expires ) );
         }
@@ -135,13 +271,30 @@ public class Cache<K, V>
             while( it.hasNext() ) {
                 Map.Entry<K, CacheEntry<K, V>> e = it.next();
                 if( e.getValue().isBefore( expires ) ) {
-                    it.remove();
-                    evicted.accept( e.getKey(), e.getValue().getValue() );
+                    evict( e.getKey(), e.getValue() );
                 }
             }
         }
     }
 
+    /**
+     * Evict an entry, notifying the eviction hook if it was removed
+     * <p>
+     * @param k Key
+     * @param e Entry expected to be present
+     */
+    private void evict( K k, CacheEntry<K, V> e )
+    {
+        if( map.remove( k, e ) ) {
+            // Get the value before it's released
+            V v = evicted == null ? null : e.getValue();
+            removed( e );
+            if( evicted != null ) {
+                evicted.accept( k, v );
+            }
+        }
+    }
+
     /**
      * Expires the oldest entries if we are too big.
      * <p>
@@ -155,7 +308,29 @@ public class Cache<K, V>
                     stream().
                     sorted( ( a, b ) -> b.getValue().getEntered().compareTo( a.getValue().getEntered() ) ).
                     limit( maxSize / 4 ).
-                    forEach( e -> map.remove( e.getKey() ) );
+                    forEach( e -> removed( map.remove( e.getKey() ) ) );
+        }
+
+        if( weigher != null && weight.get() > maxWeight ) {
+            expireByWeight();
+        }
+    }
+
+    /**
+     * Expires the oldest entries until the total weight is no more than 75% of the maximum.
+     * <p>
+     * Like {@link #expire()} this leaves some headroom so we don't end up evicting on every put.
+     */
+    private void expireByWeight()
+    {
+        final long target = maxWeight - (maxWeight / 4);
+        Iterator<Map.Entry<K, CacheEntry<K, V>>> it = map.entrySet().
+                stream().
+                sorted( ( a, b ) -> a.getValue().getEntered().compareTo( b.getValue().getEntered() ) ).
+                iterator();
+        while( weight.get() > target && it.hasNext() ) {
+            Map.Entry<K, CacheEntry<K, V>> e = it.next();
+            evict( e.getKey(), e.getValue() );
         }
     }
 
@@ -164,9 +339,78 @@ public class Cache<K, V>
         return e == null ? null : e.getValue();
     }
 
-    private CacheEntry<K, V> getC( V v )
+    private CacheEntry<K, V> getC( K k, V v )
     {
-        return v == null ? null : new CacheEntry<>( v );
+        return v == null ? null : newEntry( k, v );
+    }
+
+    private CacheEntry<K, V> newEntry( K k, V v )
+    {
+        return newEntry( k, v, LocalDateTime.now() );
+    }
+
+    private CacheEntry<K, V> newEntry( K k, V v, LocalDateTime entered )
+    {
+        if( k instanceof KeyProbe ) {
+            // Reusing the probe would change the stored key, use a new key instead
+            throw new IllegalArgumentException( "Key probe " + k + " cannot be stored in a cache" );
+        }
+        long w = weigher == null || v == null ? 0L : weigher.weigh( k, v );
+        if( offHeap != null && v != null ) {
+            try {
+                byte[] b = DataWriter.write( d -> codec.write( d, v ) );
+                long address = offHeap.store( b );
+                if( address >= 0L ) {
+                    return new OffHeapCacheEntry( address, b.length, w, entered );
+                }
+                LOG.log( Level.FINE, () -> "Off heap store full, holding " + k + " on heap" );
+            }
+            catch( IOException ex ) {
+                LOG.log( Level.WARNING, ex, () -> "Failed to serialize " + k + ", holding on heap" );
+            }
+        }
+        return new CacheEntry<>( v, w, entered );
+    }
+
+    /**
+     * Release an entry that was created but never added to the map
+     * <p>
+     * @param e entry
+     */
+    private void discard( CacheEntry<K, V> e )
+    {
+        e.release();
+    }
+
+    /**
+     * Account for the weight of an entry replacing another
+     * <p>
+     * @param o old entry, null if none
+     * @param n new entry, null if none
+     * <p>
+     * @return n
+     */
+    private CacheEntry<K, V> replaced( CacheEntry<K, V> o, CacheEntry<K, V> n )
+    {
+        long delta = (n == null ? 0L : n.getWeight()) - (o == null ? 0L : o.getWeight());
+        if( delta != 0L ) {
+            weight.addAndGet( delta );
+        }
+        if( o != null && o != n ) {
+            o.release();
+        }
+        return n;
+    }
+
+    private CacheEntry<K, V> added( CacheEntry<K, V> e )
+    {
+        return replaced( null, e );
+    }
+
+    private CacheEntry<K, V> removed( CacheEntry<K, V> e )
+    {
+        replaced( e, null );
+        return e;
     }
 
     public int size()
@@ -174,6 +418,36 @@ public class Cache<K, V>
         return map.size();
     }
 
+    /**
+     * The current total weight of all entries. This will always be 0 if the cache does not have a {@link Weigher}.
+     * <p>
+     * @return total weight
+     */
+    public long getWeight()
+    {
+        return weight.get();
+    }
+
+    /**
+     * The maximum weight of this cache
+     * <p>
+     * @return maximum weight, {@link Long#MAX_VALUE} if not bounded by weight
+     */
+    public long getMaxWeight()
+    {
+        return weigher == null ? Long.MAX_VALUE : maxWeight;
+    }
+
+    /**
+     * A summary of the size of this cache as logged by the background expiry, e.g. "10 entries weighing 400/1000"
+     * <p>
+     * @return statistics
+     */
+    public String getStatistics()
+    {
+        return size() + " entries" + (weigher == null ? "" : " weighing " + getWeight() + "/" + maxWeight);
+    }
+
     public boolean isEmpty()
     {
         return map.isEmpty();
@@ -181,7 +455,13 @@ public class Cache<K, V>
 
     public void clear()
     {
-        map.clear();
+        if( weigher == null && offHeap == null ) {
+            map.clear();
+        }
+        else {
+            map.keySet().
+                    forEach( this::remove );
+        }
     }
 
     public V get( K key )
@@ -202,7 +482,12 @@ public class Cache<K, V>
 
     private V putImpl( K key, V value )
     {
-        return getV( map.put( key, new CacheEntry<>( value ) ) );
+        CacheEntry<K, V> e = newEntry( key, value );
+        CacheEntry<K, V> o = map.put( key, e );
+        // Read the old value before it's released as an off heap entry can't be read afterwards
+        V v = getV( o );
+        replaced( o, e );
+        return v;
     }
 
     public V put( K key, V value )
@@ -222,7 +507,10 @@ public class Cache<K, V>
 
     public V remove( K key )
     {
-        return getV( map.remove( key ) );
+        CacheEntry<K, V> o = map.remove( key );
+        V v = getV( o );
+        removed( o );
+        return v;
     }
 
     public Set<K> keySet()
@@ -232,7 +520,15 @@ public class Cache<K, V>
 
     public V putIfAbsent( K key, V value )
     {
-        V v = getV( map.putIfAbsent( key, new CacheEntry<>( value ) ) );
+        CacheEntry<K, V> e = newEntry( key, value );
+        CacheEntry<K, V> o = map.putIfAbsent( key, e );
+        if( o == null ) {
+            added( e );
+        }
+        else {
+            discard( e );
+        }
+        V v = getV( o );
         expire();
         return v;
     }
@@ -256,7 +552,7 @@ public class Cache<K, V>
     public V computeIfAbsent( K key, Function<? super K, ? extends V> mappingFunction )
     {
         try {
-            return getV( map.computeIfAbsent( key, k -> getC( mappingFunction.apply( k ) ) ) );
+            return getV( map.computeIfAbsent( key, k -> added( getC( k, mappingFunction.apply( k ) ) ) ) );
         }
         finally {
             expire();
@@ -266,7 +562,7 @@ public class Cache<K, V>
     public V computeIfPresent( K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction )
     {
         try {
-            return getV( map.computeIfPresent( key, ( k, v ) -> getC( remappingFunction.apply( k, getV( v ) ) ) ) );
+            return getV( map.computeIfPresent( key, ( k, v ) -> replaced( v, getC( k, remappingFunction.apply( k, getV( v ) ) ) ) ) );
         }
         finally {
             expire();
@@ -276,7 +572,7 @@ public class Cache<K, V>
     public V compute( K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction )
     {
         try {
-            return getV( map.compute( key, ( k, v ) -> getC( remappingFunction.apply( k, getV( v ) ) ) ) );
+            return getV( map.compute( key, ( k, v ) -> replaced( v, getC( k, remappingFunction.apply( k, getV( v ) ) ) ) ) );
         }
         finally {
             expire();
@@ -286,9 +582,12 @@ public class Cache<K, V>
     public V merge( K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction )
     {
         try {
+            // Implemented with compute so the weight of a new entry is accounted for
+            Objects.requireNonNull( value );
             return getV(
-                    map.merge( key, getC( value ),
-                               ( o, v ) -> getC( remappingFunction.apply( getV( o ), getV( v ) ) ) )
+                    map.compute( key, ( k, o ) -> replaced( o, o == null
+                                                               ? getC( k, value )
+                                                               : getC( k, remappingFunction.apply( getV( o ), value ) ) ) )
             );
         }
         finally {
@@ -306,7 +605,7 @@ public class Cache<K, V>
             throws SQLException
     {
         try {
-            return getV( map.computeSQLIfAbsent( key, () -> getC( mappingFunction.get() ) ) );
+            return getV( map.computeSQLIfAbsent( key, () -> added( getC( key, mappingFunction.get() ) ) ) );
         }
         finally {
             expire();
@@ -317,7 +616,7 @@ public class Cache<K, V>
             throws SQLException
     {
         try {
-            return getV( map.computeSQLIfPresent( key, ( k, v ) -> getC( remappingFunction.apply( k, getV( v ) ) ) ) );
+            return getV( map.computeSQLIfPresent( key, ( k, v ) -> replaced( v, getC( k, remappingFunction.apply( k, getV( v ) ) ) ) ) );
         }
         finally {
             expire();
@@ -328,7 +627,7 @@ public class Cache<K, V>
             throws SQLException
     {
         try {
-            return getV( map.computeSQLIfAbsent( key, k -> getC( mappingFunction.apply( k ) ) ) );
+            return getV( map.computeSQLIfAbsent( key, k -> added( getC( k, mappingFunction.apply( k ) ) ) ) );
         }
         finally {
             expire();
@@ -339,7 +638,7 @@ public class Cache<K, V>
             throws SQLException
     {
         try {
-            return getV( map.computeSQL( key, ( k, v ) -> getC( remappingFunction.apply( k, getV( v ) ) ) ) );
+            return getV( map.computeSQL( key, ( k, v ) -> replaced( v, getC( k, remappingFunction.apply( k, getV( v ) ) ) ) ) );
         }
         finally {
             expire();
@@ -350,14 +649,81 @@ public class Cache<K, V>
             throws SQLException
     {
         try {
+            Objects.requireNonNull( value );
             return getV( map.
-                    mergeSQL( key, getC( value ), ( o, v ) -> getC( remappingFunction.apply( getV( o ), getV( v ) ) ) ) );
+                    computeSQL( key, ( k, o ) -> replaced( o, o == null
+                                                              ? getC( k, value )
+                                                              : getC( k, remappingFunction.apply( getV( o ), value ) ) ) ) );
         }
         finally {
             expire();
         }
     }
 
+    /**
+     * Returns the values for a collection of keys, loading all missing keys with a single call to the loader.
+     * <p>
+     * Every key not currently in the cache is collected into a set and passed to the loader in one go so that it can
+     * retrieve them all in a single round trip to the database, e.g.
+     * <pre>
+     * cache.getAll( ids, missing -&gt; SQL.executeQuery( SQL.prepare( con, "SELECT id, name FROM t WHERE id = ANY(?)",
+     *                                                           (Object) missing.toArray( new Long[0] ) ), ... ) );
+     * </pre>
+     * <p>
+     * The loaded values are added to the cache before this method returns. If another thread populated a key whilst the
+     * loader was running then that value is kept and returned instead of the loaded one, so callers never see two values
+     * for the same key.
+     * <p>
+     * Keys that are neither in the cache nor returned by the loader will be absent from the returned map.
+     * <p>
+     * @param keys   Keys to retrieve
+     * @param loader Function to load the missing keys, returning a map of key to value. It will not be called if all keys
+     *               are present.
+     * <p>
+     * @return Map of key to value for all keys that are present
+     * <p>
+     * @throws SQLException from the loader
+     */
+    public Map<K, V> getAll( Collection<K> keys, SQLFunction<Set<K>, Map<K, V>> loader )
+            throws SQLException
+    {
+        final Map<K, V> result = new HashMap<>();
+        final Set<K> missing = new HashSet<>();
+        for( K key: keys ) {
+            V v = get( key );
+            if( v == null ) {
+                missing.add( key );
+            }
+            else {
+                result.put( key, v );
+            }
+        }
+
+        if( !missing.isEmpty() ) {
+            Map<K, V> loaded = loader.apply( Collections.unmodifiableSet( missing ) );
+            if( loaded != null && !loaded.isEmpty() ) {
+                loaded.forEach( ( k, v ) -> {
+                    if( v != null ) {
+                        CacheEntry<K, V> n = newEntry( k, v );
+                        CacheEntry<K, V> e = map.putIfAbsent( k, n );
+                        if( e == null ) {
+                            added( n );
+                        }
+                        else {
+                            discard( n );
+                        }
+                        // The existing entry may be off heap and released by a concurrent remove, so fall back to ours
+                        V existing = getV( e );
+                        result.put( k, existing == null ? v : existing );
+                    }
+                } );
+                expire();
+            }
+        }
+
+        return result;
+    }
+
     /**
      * Call a Consumer with a value in the cache only if it's present.
      * <p>
@@ -548,21 +914,189 @@ public class Cache<K, V>
         return Collector.of( () -> null, ( n, t ) -> computeIfAbsent( keyMapper.apply( t ), k -> t ), Functions.writeOnceBinaryOperator() );
     }
 
+    /**
+     * Write the contents of this cache to a file.
+     * <p>
+     * Each entry is written along with the time it was entered into the cache so that when it's restored it will still
+     * expire at the correct time. The file is written to a temporary file first and then moved into place so a failure
+     * part way through will not corrupt an existing snapshot.
+     * <p>
+     * @param path       File to write
+     * @param keyCodec   Codec for the keys
+     * @param valueCodec Codec for the values
+     * <p>
+     * @return number of entries written
+     * <p>
+     * @throws IOException on failure
+     */
+    public int snapshot( Path path, CacheCodec<K> keyCodec, CacheCodec<V> valueCodec )
+            throws IOException
+    {
+        Path tmp = path.resolveSibling( path.getFileName() + ".tmp" );
+        int count = 0;
+        try( DataWriter w = new DataWriter( new BufferedOutputStream( Files.newOutputStream( tmp ) ) ) ) {
+            w.writeInt( SNAPSHOT_MAGIC );
+            for( Map.Entry<K, CacheEntry<K, V>> e: map.entrySet() ) {
+                V v = e.getValue().getValue();
+                // null if it's been removed since we started
+                if( v != null ) {
+                    w.writeBoolean( true );
+                    w.writeLong( e.getValue().getEntered().toInstant( ZoneOffset.UTC ).toEpochMilli() );
+                    keyCodec.write( w, e.getKey() );
+                    valueCodec.write( w, v );
+                    count++;
+                }
+            }
+            w.writeBoolean( false );
+        }
+        Files.move( tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+
+        final int written = count;
+        LOG.log( Level.INFO, () -> "Written " + written + " entries to " + path );
+        return count;
+    }
+
+    /**
+     * Load entries from a file written by {@link #snapshot(java.nio.file.Path, uk.trainwatch.util.cache.CacheCodec, uk.trainwatch.util.cache.CacheCodec)}.
+     * <p>
+     * Entries older than the cache's maximum age are ignored, as are any keys already present in the cache as they will
+     * be newer than those in the snapshot.
+     * <p>
+     * @param path       File to read
+     * @param keyCodec   Codec for the keys
+     * @param valueCodec Codec for the values
+     * <p>
+     * @return number of entries loaded
+     * <p>
+     * @throws IOException on failure
+     */
+    public int restore( Path path, CacheCodec<K> keyCodec, CacheCodec<V> valueCodec )
+            throws IOException
+    {
+        final LocalDateTime expiry = LocalDateTime.now().
+                minus( maxAge );
+        int count = 0;
+        try( DataReader r = new DataReader( new BufferedInputStream( Files.newInputStream( path ) ) ) ) {
+            if( r.readInt() != SNAPSHOT_MAGIC ) {
+                throw new IOException( path + " is not a cache snapshot" );
+            }
+
+            while( r.readBoolean() ) {
+                long ms = r.readLong();
+                K k = keyCodec.read( r );
+                V v = valueCodec.read( r );
+
+                LocalDateTime entered = LocalDateTime.ofEpochSecond( Math.floorDiv( ms, 1000L ),
+                                                                     (int) Math.floorMod( ms, 1000L ) * 1000000,
+                                                                     ZoneOffset.UTC );
+                if( v != null && !entered.isBefore( expiry ) ) {
+                    CacheEntry<K, V> e = newEntry( k, v, entered );
+                    if( map.putIfAbsent( k, e ) == null ) {
+                        added( e );
+                        count++;
+                    }
+                    else {
+                        discard( e );
+                    }
+                }
+            }
+        }
+        expire();
+
+        final int loaded = count;
+        LOG.log( Level.INFO, () -> "Loaded " + loaded + " entries from " + path );
+        return count;
+    }
+
+    /**
+     * Restore this cache from a snapshot in the background and write a new snapshot when the JVM shuts down.
+     * <p>
+     * As the restore happens in the background the cache can be used immediately, entries will appear as they are loaded.
+     * <p>
+     * If the JVM shuts down before the restore has completed, or after the cache has been closed, the existing snapshot
+     * is left as is rather than being replaced by a partial one.
+     * <p>
+     * @param path       Snapshot file
+     * @param keyCodec   Codec for the keys
+     * @param valueCodec Codec for the values
+     * <p>
+     * @return CompletableFuture completing with the number of entries restored, 0 if there was no snapshot
+     * <p>
+     * @throws IllegalStateException if the cache is closed or warmStart has already been called
+     */
+    public CompletableFuture<Integer> warmStart( Path path, CacheCodec<K> keyCodec, CacheCodec<V> valueCodec )
+    {
+        if( isClosed() ) {
+            throw new IllegalStateException( "Cache is closed" );
+        }
+
+        CompletableFuture<Integer> restored = new CompletableFuture<>();
+
+        Thread hook = new Thread( () -> {
+            if( isClosed() ) {
+                return;
+            }
+            if( !restored.isDone() ) {
+                LOG.log( Level.WARNING, () -> "Restore of " + path + " incomplete, not writing snapshot" );
+                return;
+            }
+            try {
+                snapshot( path, keyCodec, valueCodec );
+            }
+            catch( IOException ex ) {
+                LOG.log( Level.SEVERE, ex, () -> "Failed to write snapshot " + path );
+            }
+        }, "Cache-Snapshot" );
+
+        if( !snapshotHook.compareAndSet( null, hook ) ) {
+            throw new IllegalStateException( "warmStart already called" );
+        }
+        Runtime.getRuntime().
+                addShutdownHook( hook );
+
+        DaemonThreadFactory.INSTANCE.getCachedExecutor().
+                execute( () -> {
+                    try {
+                        restored.complete( Files.exists( path ) ? restore( path, keyCodec, valueCodec ) : 0 );
+                    }
+                    catch( IOException ex ) {
+                        LOG.log( Level.WARNING, ex, () -> "Failed to restore snapshot " + path );
+                        restored.completeExceptionally( new UncheckedIOException( ex ) );
+                    }
+                    catch( RuntimeException ex ) {
+                        restored.completeExceptionally( ex );
+                    }
+                } );
+
+        // A copy so cancelling the returned future can't make a partial restore look complete to the hook
+        return restored.thenApply( Function.identity() );
+    }
+
+    /**
+     * @return the shutdown hook registered by warmStart, null if none
+     */
+    Thread getSnapshotHook()
+    {
+        return snapshotHook.get();
+    }
+
     private static class CacheEntry<K, V>
     {
 
         private final V value;
         private final LocalDateTime entered;
+        private final long weight;
 
-        public CacheEntry( V value )
+        public CacheEntry( V value, long weight, LocalDateTime entered )
         {
             this.value = value;
-            entered = LocalDateTime.now();
+            this.weight = weight;
+            this.entered = entered;
         }
 
-        public CacheEntry( K key, V value )
+        public long getWeight()
         {
-            this( value );
+            return weight;
         }
 
         public LocalDateTime getEntered()
@@ -575,6 +1109,13 @@ public class Cache<K, V>
             return value;
         }
 
+        /**
+         * Called once the entry has been removed from the cache
+         */
+        public void release()
+        {
+        }
+
         public boolean isBefore( ChronoLocalDateTime<?> other )
         {
             return entered.isBefore( other );
@@ -586,4 +1127,68 @@ public class Cache<K, V>
         }
     }
 
+    /**
+     * A CacheEntry whose value is held in the {@link OffHeapStore}
+     */
+    private class OffHeapCacheEntry
+            extends CacheEntry<K, V>
+    {
+
+        private final OffHeapStore store;
+        private final CacheCodec<V> codec;
+        private final long address;
+        private final int length;
+        private volatile boolean released;
+        private final AtomicInteger reads = new AtomicInteger();
+        private volatile SoftReference<V> hot;
+
+        public OffHeapCacheEntry( long address, int length, long weight, LocalDateTime entered )
+        {
+            super( null, weight, entered );
+            this.store = offHeap;
+            this.codec = Cache.this.codec;
+            this.address = address;
+            this.length = length;
+        }
+
+        @Override
+        public V getValue()
+        {
+            SoftReference<V> h = hot;
+            V v = h == null ? null : h.get();
+            if( v != null ) {
+                return v;
+            }
+
+            byte[] b = store.read( address, length );
+
+            // If released then the block may have been reused before or during the read
+            if( released ) {
+                return null;
+            }
+
+            try {
+                v = codec.read( new DataReader( b ) );
+            }
+            catch( IOException ex ) {
+                throw new UncheckedIOException( ex );
+            }
+
+            if( hotThreshold > 0 && reads.incrementAndGet() >= hotThreshold ) {
+                hot = new SoftReference<>( v );
+            }
+            return v;
+        }
+
+        @Override
+        public synchronized void release()
+        {
+            if( !released ) {
+                released = true;
+                hot = null;
+                store.free( address, length );
+            }
+        }
+    }
+
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.cache;
+
+import java.io.IOException;
+import uk.trainwatch.io.IOBiConsumer;
+import uk.trainwatch.io.IOFunction;
+import uk.trainwatch.io.format.DataReader;
+import uk.trainwatch.io.format.DataWriter;
+
+/**
+ * Converts a cache key or value to and from a compact binary form using {@link DataWriter} and {@link DataReader}.
+ * <p>
+ * @param <T> Type being encoded
+ * <p>
+ * @author peter
+ */
+public interface CacheCodec<T>
+{
+
+    void write( DataWriter w, T t )
+            throws IOException;
+
+    T read( DataReader r )
+            throws IOException;
+
+    /**
+     * Create a codec from a pair of functions
+     * <p>
+     * @param <T>    Type being encoded
+     * @param writer Writer
+     * @param reader Reader
+     * <p>
+     * @return codec
+     */
+    static <T> CacheCodec<T> of( IOBiConsumer<DataWriter, T> writer, IOFunction<DataReader, T> reader )
+    {
+        return new CacheCodec<T>()
+        {
+            @Override
+            public void write( DataWriter w, T t )
+                    throws IOException
+            {
+                writer.accept( w, t );
+            }
+
+            @Override
+            public T read( DataReader r )
+                    throws IOException
+            {
+                return reader.apply( r );
+            }
+        };
+    }
+
+    static CacheCodec<String> string()
+    {
+        return of( DataWriter::writeString, DataReader::readString );
+    }
+
+    static CacheCodec<Integer> integer()
+    {
+        return of( DataWriter::writeInt, DataReader::readInt );
+    }
+
+    static CacheCodec<Long> longValue()
+    {
+        return of( DataWriter::writeLong, DataReader::readLong );
+    }
+}
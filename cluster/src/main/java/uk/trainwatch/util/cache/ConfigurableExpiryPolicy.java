@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.cache;
+
+import java.io.Serializable;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import javax.cache.expiry.Duration;
+import javax.cache.expiry.ExpiryPolicy;
+
+/**
+ * JCache expiry policy with a configurable duration, applied after creation, after creation or update, or after
+ * creation, update or last access.
+ * <p>
+ * This covers the fixed policies like {@link DailyExpiryPolicy} and {@link HourAccessExpiryPolicy} for any duration.
+ * <p>
+ * @author peter
+ */
+public class ConfigurableExpiryPolicy
+        implements ExpiryPolicy,
+                   Serializable
+{
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * What resets the expiry time of an entry
+     */
+    public static enum Mode
+    {
+        /**
+         * Expire a fixed time after creation regardless of updates or access
+         */
+        CREATED,
+        /**
+         * Expire a fixed time after creation or the last update
+         */
+        UPDATED,
+        /**
+         * Expire a fixed time after creation, the last update or the last access
+         */
+        ACCESSED
+    }
+
+    private final Duration duration;
+    private final Mode mode;
+
+    public ConfigurableExpiryPolicy( long duration, TimeUnit unit, Mode mode )
+    {
+        this( new Duration( unit, duration ), mode );
+    }
+
+    public ConfigurableExpiryPolicy( Duration duration, Mode mode )
+    {
+        this.duration = Objects.requireNonNull( duration );
+        this.mode = Objects.requireNonNull( mode );
+    }
+
+    public Duration getDuration()
+    {
+        return duration;
+    }
+
+    public Mode getMode()
+    {
+        return mode;
+    }
+
+    @Override
+    public Duration getExpiryForCreation()
+    {
+        return duration;
+    }
+
+    @Override
+    public Duration getExpiryForAccess()
+    {
+        return mode == Mode.ACCESSED ? duration : null;
+    }
+
+    @Override
+    public Duration getExpiryForUpdate()
+    {
+        return mode == Mode.CREATED ? null : duration;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ConfigurableExpiryPolicy[" + duration.getDurationAmount() + " " + duration.getTimeUnit() + " after " + mode + "]";
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.cache;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import javax.cache.configuration.Factory;
+import javax.cache.expiry.ExpiryPolicy;
+import uk.trainwatch.util.config.Configuration;
+
+/**
+ * Factory for a {@link ConfigurableExpiryPolicy}.
+ * <p>
+ * When created from a {@link Configuration} the following keys are used:
+ * <ul>
+ * <li>duration - the expiry time either as an ISO-8601 duration, e.g. "PT30S" or "PT0.5S", or a number of seconds</li>
+ * <li>expiry - one of CREATED, UPDATED or ACCESSED in any case, defaults to UPDATED</li>
+ * </ul>
+ * <p>
+ * The values are read when the factory is created so the factory remains {@link java.io.Serializable} for distribution
+ * around the cluster.
+ * <p>
+ * @author peter
+ */
+public class ConfigurableExpiryPolicyFactory
+        implements Factory<ExpiryPolicy>
+{
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String DURATION = "duration";
+    public static final String EXPIRY = "expiry";
+
+    private final long millis;
+    private final ConfigurableExpiryPolicy.Mode mode;
+
+    /**
+     * Create a factory
+     * <p>
+     * @param duration expiry time, at least 1ms
+     * @param mode     what resets the expiry time
+     * <p>
+     * @throws IllegalArgumentException if the duration is under 1ms
+     */
+    public ConfigurableExpiryPolicyFactory( java.time.Duration duration, ConfigurableExpiryPolicy.Mode mode )
+    {
+        this.millis = duration.toMillis();
+        if( millis < 1L ) {
+            throw new IllegalArgumentException( "Expiry " + DURATION + " must be at least 1ms, got " + duration );
+        }
+        this.mode = Objects.requireNonNull( mode );
+    }
+
+    /**
+     * Create a factory from configuration
+     * <p>
+     * @param config Configuration
+     * <p>
+     * @return factory
+     * <p>
+     * @throws IllegalArgumentException if the duration is missing or invalid, or the expiry is unknown
+     */
+    public static ConfigurableExpiryPolicyFactory fromConfiguration( Configuration config )
+    {
+        String duration = config.getString( DURATION );
+        if( duration == null || duration.isEmpty() ) {
+            throw new IllegalArgumentException( "No " + DURATION + " in expiry configuration" );
+        }
+
+        return new ConfigurableExpiryPolicyFactory(
+                duration.startsWith( "P" ) ? java.time.Duration.parse( duration ) : java.time.Duration.ofSeconds( Long.parseLong( duration ) ),
+                parseMode( config.getString( EXPIRY ) )
+        );
+    }
+
+    /**
+     * Parse the expiry mode ignoring case. Unlike {@link Configuration#getEnum(java.lang.String, java.lang.Class)} an
+     * unknown value is an error rather than silently using the default.
+     * <p>
+     * @param s mode, null or empty for UPDATED
+     * <p>
+     * @return mode
+     * <p>
+     * @throws IllegalArgumentException if the mode is unknown
+     */
+    static ConfigurableExpiryPolicy.Mode parseMode( String s )
+    {
+        if( s == null || s.trim().isEmpty() ) {
+            return ConfigurableExpiryPolicy.Mode.UPDATED;
+        }
+        try {
+            return ConfigurableExpiryPolicy.Mode.valueOf( s.trim().toUpperCase( Locale.ROOT ) );
+        }
+        catch( IllegalArgumentException ex ) {
+            throw new IllegalArgumentException( "Unknown " + EXPIRY + " \"" + s + "\", expected one of "
+                                                + Arrays.toString( ConfigurableExpiryPolicy.Mode.values() ), ex );
+        }
+    }
+
+    @Override
+    public ExpiryPolicy create()
+    {
+        return new ConfigurableExpiryPolicy( millis, TimeUnit.MILLISECONDS, mode );
+    }
+
+}
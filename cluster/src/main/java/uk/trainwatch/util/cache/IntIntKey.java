@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.cache;
+
+/**
+ * A cache key made from two {@code int} values.
+ * <p>
+ * Unlike {@link CacheKey} the values are not boxed and the hash is strongly mixed so small values do not collide.
+ * <p>
+ * To look up a value without allocating a key use a {@link Probe}, e.g.
+ * <pre>
+ * private final IntIntKey.Probe probe = new IntIntKey.Probe();
+ * ...
+ * V v = cache.get( probe.set( day, hour ) );
+ * </pre>
+ * <p>
+ * @author peter
+ */
+public class IntIntKey
+{
+
+    // Not final only so a Probe can be reused, a key itself never changes
+    private int a;
+    private int b;
+
+    public IntIntKey( int a, int b )
+    {
+        this.a = a;
+        this.b = b;
+    }
+
+    private IntIntKey()
+    {
+    }
+
+    public int getA()
+    {
+        return a;
+    }
+
+    public int getB()
+    {
+        return b;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return KeyHash.hash( a, b );
+    }
+
+    @Override
+    public boolean equals( Object obj )
+    {
+        if( !(obj instanceof IntIntKey) ) {
+            return false;
+        }
+        final IntIntKey other = (IntIntKey) obj;
+        return a == other.a && b == other.b;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[" + a + "," + b + "]";
+    }
+
+    /**
+     * A mutable key used to look up a value without allocating a new key.
+     * <p>
+     * A probe must only be used for lookups and must not be shared between threads. Storing a probe as a key is an error:
+     * {@link Cache} will throw {@link IllegalArgumentException}, and in any other map reusing the probe would silently
+     * change the stored key and corrupt the map.
+     */
+    public static final class Probe
+            extends IntIntKey
+            implements KeyProbe
+    {
+
+        public Probe set( int a, int b )
+        {
+            super.a = a;
+            super.b = b;
+            return this;
+        }
+    }
+}
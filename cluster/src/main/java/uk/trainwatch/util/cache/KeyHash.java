@@ -0,0 +1,49 @@
+/*
+ * Copyright 2015 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.cache;
+
+/**
+ * Hash functions for the primitive cache keys.
+ * <p>
+ * These use the finalisation step of MurmurHash3 so that keys made from small, sequential values, e.g. day and hour,
+ * are spread across the whole hash range instead of clustering together.
+ * <p>
+ * @author peter
+ */
+final class KeyHash
+{
+
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+    private KeyHash()
+    {
+    }
+
+    static int hash( long v )
+    {
+        v ^= v >>> 33;
+        v *= 0xff51afd7ed558ccdL;
+        v ^= v >>> 33;
+        v *= 0xc4ceb9fe1a85ec53L;
+        v ^= v >>> 33;
+        return (int) v;
+    }
+
+    static int hash( long a, long b )
+    {
+        return hash( (a * GOLDEN) + b );
+    }
+}
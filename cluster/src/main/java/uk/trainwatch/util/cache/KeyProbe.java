@@ -0,0 +1,28 @@
+/*
+ * Copyright 2015 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.cache;
+
+/**
+ * Marks the mutable probes of the primitive cache keys.
+ * <p>
+ * A probe is only valid for lookups. If one were stored as a key, reusing it would change that key in place and corrupt
+ * the map holding it, so {@link Cache} rejects any attempt to store one.
+ * <p>
+ * @author peter
+ */
+interface KeyProbe
+{
+}
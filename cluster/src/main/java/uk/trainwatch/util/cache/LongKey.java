@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.cache;
+
+/**
+ * A cache key holding a single {@code long}, e.g. a database id.
+ * <p>
+ * Unlike {@link CacheKey} the values are not boxed and the hash is strongly mixed so small values do not collide.
+ * <p>
+ * To look up a value without allocating a key use a {@link Probe}, e.g.
+ * <pre>
+ * private final LongKey.Probe probe = new LongKey.Probe();
+ * ...
+ * V v = cache.get( probe.set( id ) );
+ * </pre>
+ * <p>
+ * @author peter
+ */
+public class LongKey
+{
+
+    // Not final only so a Probe can be reused, a key itself never changes
+    private long a;
+
+    public LongKey( long a )
+    {
+        this.a = a;
+    }
+
+    private LongKey()
+    {
+    }
+
+    public long getA()
+    {
+        return a;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return KeyHash.hash( a );
+    }
+
+    @Override
+    public boolean equals( Object obj )
+    {
+        if( !(obj instanceof LongKey) ) {
+            return false;
+        }
+        final LongKey other = (LongKey) obj;
+        return a == other.a;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[" + a + "]";
+    }
+
+    /**
+     * A mutable key used to look up a value without allocating a new key.
+     * <p>
+     * A probe must only be used for lookups and must not be shared between threads. Storing a probe as a key is an error:
+     * {@link Cache} will throw {@link IllegalArgumentException}, and in any other map reusing the probe would silently
+     * change the stored key and corrupt the map.
+     */
+    public static final class Probe
+            extends LongKey
+            implements KeyProbe
+    {
+
+        public Probe set( long a )
+        {
+            super.a = a;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2015 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.cache;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.cache.configuration.CacheEntryListenerConfiguration;
+import javax.cache.configuration.FactoryBuilder;
+import javax.cache.configuration.MutableCacheEntryListenerConfiguration;
+import javax.cache.event.CacheEntryEvent;
+import javax.cache.event.CacheEntryExpiredListener;
+import javax.cache.event.CacheEntryListenerException;
+import javax.cache.event.CacheEntryRemovedListener;
+import javax.cache.event.CacheEntryUpdatedListener;
+
+/**
+ * A local {@link Cache} in front of a distributed JCache {@link javax.cache.Cache}, so that read mostly data is served
+ * from local memory rather than a network round trip to the cluster.
+ * <p>
+ * An entry listener is registered against the distributed cache so that when an entry is updated, removed or expired on
+ * any node the local copy is invalidated. As those events are delivered asynchronously a local copy is also never used
+ * once it is older than the maximum staleness.
+ * <p>
+ * Writes go straight to the distributed cache and invalidate the local copy, which is reloaded on the next read.
+ * <p>
+ * @param <K> Key type
+ * @param <V> Value type
+ * <p>
+ * @author peter
+ */
+public class NearCache<K, V>
+        implements AutoCloseable
+{
+
+    private static final Logger LOG = Logger.getLogger( NearCache.class.getName() );
+
+    /**
+     * Number of invalidation versions, a power of 2
+     */
+    private static final int STRIPES = 256;
+
+    private final javax.cache.Cache<K, V> remote;
+    private final Cache<K, NearEntry<V>> local;
+    private final long maxStaleness;
+    private final CacheEntryListenerConfiguration<K, V> listenerConfiguration;
+
+    /**
+     * Versions incremented when a key is invalidated, indexed by the key's hash, so a value read from the cluster is not
+     * stored locally if that key may have been invalidated whilst it was being read. Invalidating other keys only
+     * prevents this if they share the same stripe.
+     */
+    private final AtomicLongArray versions = new AtomicLongArray( STRIPES );
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Create a NearCache
+     * <p>
+     * @param remote       The distributed cache
+     * @param maxSize      Maximum number of entries held locally
+     * @param maxStaleness Maximum age of a local copy before it is reloaded from the cluster
+     */
+    public NearCache( javax.cache.Cache<K, V> remote, long maxSize, Duration maxStaleness )
+    {
+        this.remote = remote;
+        this.local = new Cache<>( maxSize, maxStaleness );
+        this.maxStaleness = maxStaleness.toNanos();
+
+        listenerConfiguration = new MutableCacheEntryListenerConfiguration<>(
+                FactoryBuilder.factoryOf( new Invalidator<>( this ) ), null, false, false );
+        remote.registerCacheEntryListener( listenerConfiguration );
+    }
+
+    /**
+     * Get a value, from the local copy if present and fresh otherwise from the cluster
+     * <p>
+     * @param key key
+     * <p>
+     * @return value or null if not present in the cluster
+     */
+    public V get( K key )
+    {
+        NearEntry<V> e = local.get( key );
+        if( e != null && !e.isStale( maxStaleness ) ) {
+            hits.increment();
+            return e.value;
+        }
+
+        misses.increment();
+        int stripe = stripe( key );
+        long version = versions.get( stripe );
+        V v = remote.get( key );
+        if( v != null && version == versions.get( stripe ) ) {
+            local.put( key, new NearEntry<>( v ) );
+            // An invalidation between the check and the put may have been missed, so drop what we just stored
+            if( version != versions.get( stripe ) ) {
+                local.remove( key );
+            }
+        }
+        return v;
+    }
+
+    private static int stripe( Object key )
+    {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    /**
+     * Put a value into the cluster
+     * <p>
+     * @param key   key
+     * @param value value
+     */
+    public void put( K key, V value )
+    {
+        invalidate( key );
+        remote.put( key, value );
+        invalidate( key );
+    }
+
+    /**
+     * Remove a value from the cluster
+     * <p>
+     * @param key key
+     * <p>
+     * @return true if the key was present in the cluster
+     */
+    public boolean remove( K key )
+    {
+        invalidate( key );
+        return remote.remove( key );
+    }
+
+    /**
+     * Remove the local copy of an entry
+     * <p>
+     * @param key key
+     */
+    public void invalidate( K key )
+    {
+        invalidations.increment();
+        versions.incrementAndGet( stripe( key ) );
+        local.remove( key );
+    }
+
+    /**
+     * Remove all local copies
+     */
+    public void invalidateAll()
+    {
+        invalidations.increment();
+        for( int i = 0; i < STRIPES; i++ ) {
+            versions.incrementAndGet( i );
+        }
+        local.clear();
+    }
+
+    /**
+     * The distributed cache
+     * <p>
+     * @return cache
+     */
+    public javax.cache.Cache<K, V> getRemote()
+    {
+        return remote;
+    }
+
+    /**
+     * Number of entries held locally
+     * <p>
+     * @return size
+     */
+    public int getLocalSize()
+    {
+        return local.size();
+    }
+
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    public long getInvalidations()
+    {
+        return invalidations.sum();
+    }
+
+    /**
+     * The ratio of reads served locally
+     * <p>
+     * @return hit ratio between 0 and 1
+     */
+    public double getHitRatio()
+    {
+        long h = hits.sum();
+        long t = h + misses.sum();
+        return t == 0 ? 0.0 : (double) h / t;
+    }
+
+    /**
+     * Deregister from the distributed cache, stop the local cache's background expiry and drop all local copies
+     */
+    @Override
+    public void close()
+    {
+        try {
+            if( !remote.isClosed() ) {
+                remote.deregisterCacheEntryListener( listenerConfiguration );
+            }
+        }
+        catch( RuntimeException ex ) {
+            LOG.log( Level.WARNING, "Failed to deregister near cache listener", ex );
+        }
+        local.close();
+    }
+
+    private static class NearEntry<V>
+    {
+
+        private final V value;
+        private final long loaded = System.nanoTime();
+
+        public NearEntry( V value )
+        {
+            this.value = value;
+        }
+
+        public boolean isStale( long maxStaleness )
+        {
+            return System.nanoTime() - loaded > maxStaleness;
+        }
+    }
+
+    /**
+     * Listener invalidating local entries.
+     * <p>
+     * JCache requires listener factories to be Serializable, however this listener is only meaningful on the node that
+     * registered it so the near cache itself is transient.
+     */
+    private static class Invalidator<K, V>
+            implements CacheEntryUpdatedListener<K, V>,
+                       CacheEntryRemovedListener<K, V>,
+                       CacheEntryExpiredListener<K, V>,
+                       Serializable
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient NearCache<K, V> nearCache;
+
+        public Invalidator( NearCache<K, V> nearCache )
+        {
+            this.nearCache = nearCache;
+        }
+
+        private void invalidate( Iterable<CacheEntryEvent<? extends K, ? extends V>> events )
+        {
+            if( nearCache != null ) {
+                events.forEach( e -> nearCache.invalidate( e.getKey() ) );
+            }
+        }
+
+        @Override
+        public void onUpdated( Iterable<CacheEntryEvent<? extends K, ? extends V>> events )
+                throws CacheEntryListenerException
+        {
+            invalidate( events );
+        }
+
+        @Override
+        public void onRemoved( Iterable<CacheEntryEvent<? extends K, ? extends V>> events )
+                throws CacheEntryListenerException
+        {
+            invalidate( events );
+        }
+
+        @Override
+        public void onExpired( Iterable<CacheEntryEvent<? extends K, ? extends V>> events )
+                throws CacheEntryListenerException
+        {
+            invalidate( events );
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2015 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A simple slab allocator managing blocks of memory held in direct {@link ByteBuffer}s, outside of the java heap.
+ * <p>
+ * Memory is taken from slabs of a fixed size. Each slab is dedicated to a single size class, a power of 2 between
+ * {@link #MIN_BLOCK} and the slab size, so a block is never more than twice the size of the data stored in it. Freed
+ * blocks are kept on a free list for their size class and are reused before a new slab is allocated.
+ * <p>
+ * A block is identified by it's address, the slab index in the upper 32 bits and the offset within that slab in the
+ * lower 32 bits.
+ * <p>
+ * A single store can be shared between multiple {@link Cache}'s.
+ * <p>
+ * @author peter
+ */
+public class OffHeapStore
+{
+
+    /**
+     * The smallest block that will be allocated
+     */
+    public static final int MIN_BLOCK = 64;
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros( MIN_BLOCK );
+
+    private final int slabSize;
+    private final ByteBuffer[] slabs;
+    private int slabCount;
+    private final SizeClass[] sizeClasses;
+    private final AtomicLong used = new AtomicLong();
+
+    /**
+     * Create a store
+     * <p>
+     * @param slabSize Size of each slab, must be a power of 2. This is also the largest value that can be stored.
+     * @param maxSlabs Maximum number of slabs, so the maximum memory used is slabSize*maxSlabs
+     */
+    public OffHeapStore( int slabSize, int maxSlabs )
+    {
+        if( slabSize < MIN_BLOCK || Integer.bitCount( slabSize ) != 1 ) {
+            throw new IllegalArgumentException( "Slab size must be a power of 2 and at least " + MIN_BLOCK );
+        }
+        if( maxSlabs < 1 ) {
+            throw new IllegalArgumentException( "Must have at least 1 slab" );
+        }
+        this.slabSize = slabSize;
+        slabs = new ByteBuffer[maxSlabs];
+        sizeClasses = new SizeClass[Integer.numberOfTrailingZeros( slabSize ) - MIN_SHIFT + 1];
+        for( int i = 0; i < sizeClasses.length; i++ ) {
+            sizeClasses[i] = new SizeClass( MIN_BLOCK << i );
+        }
+    }
+
+    /**
+     * Allocate a new slab
+     * <p>
+     * @return slab index or -1 if the store is full
+     */
+    private synchronized int newSlab()
+    {
+        if( slabCount >= slabs.length ) {
+            return -1;
+        }
+        slabs[slabCount] = ByteBuffer.allocateDirect( slabSize );
+        return slabCount++;
+    }
+
+    private int sizeClass( int length )
+    {
+        return length <= MIN_BLOCK ? 0 : 32 - Integer.numberOfLeadingZeros( length - 1 ) - MIN_SHIFT;
+    }
+
+    /**
+     * Store a block of data
+     * <p>
+     * @param b data
+     * <p>
+     * @return address of the data or -1 if there's no room in the store
+     */
+    public long store( byte[] b )
+    {
+        if( b.length > slabSize ) {
+            return -1L;
+        }
+        SizeClass sc = sizeClasses[sizeClass( b.length )];
+        long address = sc.allocate();
+        if( address >= 0 ) {
+            ByteBuffer buf = slabs[(int) (address >>> 32)].duplicate();
+            buf.position( (int) address );
+            buf.put( b );
+            used.addAndGet( sc.blockSize );
+        }
+        return address;
+    }
+
+    /**
+     * Read a block of data
+     * <p>
+     * @param address address returned by {@link #store(byte[])}
+     * @param length  length of the data
+     * <p>
+     * @return data
+     */
+    public byte[] read( long address, int length )
+    {
+        byte[] b = new byte[length];
+        ByteBuffer buf = slabs[(int) (address >>> 32)].duplicate();
+        buf.position( (int) address );
+        buf.get( b );
+        return b;
+    }
+
+    /**
+     * Free a block so it can be reused
+     * <p>
+     * @param address address returned by {@link #store(byte[])}
+     * @param length  length of the data
+     */
+    public void free( long address, int length )
+    {
+        SizeClass sc = sizeClasses[sizeClass( length )];
+        sc.free( address );
+        used.addAndGet( -sc.blockSize );
+    }
+
+    /**
+     * The number of bytes currently allocated to stored data
+     * <p>
+     * @return bytes used
+     */
+    public long getUsed()
+    {
+        return used.get();
+    }
+
+    /**
+     * The number of bytes reserved by allocated slabs
+     * <p>
+     * @return bytes allocated
+     */
+    public synchronized long getAllocated()
+    {
+        return (long) slabCount * slabSize;
+    }
+
+    /**
+     * The maximum number of bytes this store can use
+     * <p>
+     * @return capacity
+     */
+    public long getCapacity()
+    {
+        return (long) slabs.length * slabSize;
+    }
+
+    /**
+     * The largest block that can be stored
+     * <p>
+     * @return slab size
+     */
+    public int getSlabSize()
+    {
+        return slabSize;
+    }
+
+    /**
+     * Free list and current slab for a single block size
+     */
+    private class SizeClass
+    {
+
+        private final int blockSize;
+        private long[] free = new long[16];
+        private int freeCount;
+        private int slab = -1;
+        private int next;
+
+        SizeClass( int blockSize )
+        {
+            this.blockSize = blockSize;
+        }
+
+        synchronized long allocate()
+        {
+            if( freeCount > 0 ) {
+                return free[--freeCount];
+            }
+
+            if( slab < 0 || next + blockSize > slabSize ) {
+                slab = newSlab();
+                next = 0;
+                if( slab < 0 ) {
+                    return -1L;
+                }
+            }
+
+            long address = ((long) slab << 32) | next;
+            next += blockSize;
+            return address;
+        }
+
+        synchronized void free( long address )
+        {
+            if( freeCount == free.length ) {
+                free = Arrays.copyOf( free, free.length << 1 );
+            }
+            free[freeCount++] = address;
+        }
+    }
+}
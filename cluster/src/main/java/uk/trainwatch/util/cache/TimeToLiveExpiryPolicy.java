@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.cache;
+
+import com.hazelcast.cache.ICache;
+import java.util.concurrent.TimeUnit;
+import javax.cache.Cache;
+import javax.cache.expiry.Duration;
+import javax.cache.expiry.ExpiryPolicy;
+
+/**
+ * JCache expiry policy taking it's time to live from the value being stored, so short lived data such as live departures
+ * expires promptly whilst static data in the same cache lives for longer.
+ * <p>
+ * A JCache {@link ExpiryPolicy} is not given the entry so the policy is created from the value when it's stored. Use
+ * {@link #put(javax.cache.Cache, java.lang.Object, java.lang.Object)} or
+ * {@link #putIfAbsent(javax.cache.Cache, java.lang.Object, java.lang.Object)} which pass the policy to Hazelcast with
+ * the value. Values that do not implement {@link TimeToLive}, or return a null time to live, use the cache's own policy.
+ * <p>
+ * The time to live runs from when the value is created or updated and is not extended by access.
+ * <p>
+ * On Hazelcast 3.5 the policy passed with a value is only used for that create or update operation. Hazelcast does not
+ * keep it with the entry, so a later access or update without a policy, e.g. a plain {@link Cache#get(java.lang.Object)}
+ * or {@link Cache#put(java.lang.Object, java.lang.Object)}, applies the cache's configured expiry policy instead. If
+ * that policy extends entries on access or update then the value can outlive it's time to live, so either configure
+ * the cache with a {@link ConfigurableExpiryPolicy.Mode#CREATED} policy or always update values through this class.
+ * <p>
+ * @author peter
+ */
+public class TimeToLiveExpiryPolicy
+        extends ConfigurableExpiryPolicy
+{
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Policy for values that have already expired
+     */
+    private static final ExpiryPolicy ZERO = new ConfigurableExpiryPolicy( Duration.ZERO, Mode.UPDATED );
+
+    public TimeToLiveExpiryPolicy( java.time.Duration ttl )
+    {
+        super( Math.max( 0L, ttl.toMillis() ), TimeUnit.MILLISECONDS, Mode.UPDATED );
+    }
+
+    /**
+     * Returns the expiry policy for a value
+     * <p>
+     * @param value value
+     * <p>
+     * @return policy or null if the value does not define a time to live
+     */
+    public static ExpiryPolicy forValue( Object value )
+    {
+        if( value instanceof TimeToLive ) {
+            java.time.Duration ttl = ((TimeToLive) value).getTimeToLive();
+            if( ttl != null ) {
+                return ttl.isZero() || ttl.isNegative() ? ZERO : new TimeToLiveExpiryPolicy( ttl );
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Put a value into a cache using it's time to live
+     * <p>
+     * @param <K>   key type
+     * @param <V>   value type
+     * @param cache Cache, must be a Hazelcast cache for the time to live to apply
+     * @param key   key
+     * @param value value
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> void put( Cache<K, V> cache, K key, V value )
+    {
+        ExpiryPolicy policy = forValue( value );
+        if( policy == null ) {
+            cache.put( key, value );
+        }
+        else {
+            cache.unwrap( ICache.class ).
+                    put( key, value, policy );
+        }
+    }
+
+    /**
+     * Put a value into a cache using it's time to live if the key is not already present
+     * <p>
+     * @param <K>   key type
+     * @param <V>   value type
+     * @param cache Cache, must be a Hazelcast cache for the time to live to apply
+     * @param key   key
+     * @param value value
+     * <p>
+     * @return true if the value was stored
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> boolean putIfAbsent( Cache<K, V> cache, K key, V value )
+    {
+        ExpiryPolicy policy = forValue( value );
+        if( policy == null ) {
+            return cache.putIfAbsent( key, value );
+        }
+        return cache.unwrap( ICache.class ).
+                putIfAbsent( key, value, policy );
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2015 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.cache;
+
+/**
+ * Calculates the weight of a {@link Cache} entry, used to bound a cache by an estimate of its memory footprint rather
+ * than the number of entries it holds.
+ * <p>
+ * The weight of an entry is calculated once when it's added to the cache so it must not change afterwards.
+ * <p>
+ * @param <K> Key type
+ * @param <V> Value type
+ * <p>
+ * @author peter
+ */
+@FunctionalInterface
+public interface Weigher<K, V>
+{
+
+    /**
+     * Returns the weight of an entry, e.g. it's estimated size in bytes
+     * <p>
+     * @param key   Key
+     * @param value Value
+     * <p>
+     * @return weight, must not be negative
+     */
+    long weigh( K key, V value );
+
+    /**
+     * A Weigher where every entry has a weight of 1, i.e. the weight is the number of entries
+     * <p>
+     * @param <K> Key type
+     * @param <V> Value type
+     * <p>
+     * @return Weigher
+     */
+    static <K, V> Weigher<K, V> singleton()
+    {
+        return ( k, v ) -> 1L;
+    }
+
+    /**
+     * A Weigher for String values, estimating the bytes used by the string's characters
+     * <p>
+     * @param <K> Key type
+     * <p>
+     * @return Weigher
+     */
+    static <K> Weigher<K, String> string()
+    {
+        return ( k, v ) -> 40L + (2L * v.length());
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.cluster;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.cache.CacheException;
+import javax.cache.CacheManager;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class LazyCacheManagerTest
+{
+
+    /**
+     * Just enough of a CacheManager to be closed
+     */
+    private static CacheManager cacheManager( AtomicBoolean closed )
+    {
+        return (CacheManager) Proxy.newProxyInstance(
+                LazyCacheManagerTest.class.getClassLoader(),
+                new Class<?>[]{CacheManager.class},
+                ( proxy, method, args ) -> {
+                    switch( method.getName() ) {
+                        case "close":
+                            closed.set( true );
+                            return null;
+                        case "isClosed":
+                            return closed.get();
+                        default:
+                            throw new UnsupportedOperationException( method.getName() );
+                    }
+                } );
+    }
+
+    @Test
+    public void pending()
+    {
+        CompletableFuture<CacheManager> future = new CompletableFuture<>();
+        LazyCacheManager lazy = new LazyCacheManager( null, future );
+
+        // None of these block whilst starting
+        assertFalse( lazy.isStarted() );
+        assertFalse( lazy.isFailed() );
+        assertFalse( lazy.isClosed() );
+
+        AtomicBoolean closed = new AtomicBoolean();
+        future.complete( cacheManager( closed ) );
+        assertTrue( lazy.isStarted() );
+        assertFalse( lazy.isClosed() );
+    }
+
+    @Test
+    public void completed()
+    {
+        AtomicBoolean closed = new AtomicBoolean();
+        CacheManager delegate = cacheManager( closed );
+        LazyCacheManager lazy = new LazyCacheManager( null, CompletableFuture.completedFuture( delegate ) );
+
+        assertTrue( lazy.isStarted() );
+        assertFalse( lazy.isFailed() );
+        assertSame( delegate, lazy.getDelegate() );
+        assertFalse( lazy.isClosed() );
+
+        lazy.close();
+        assertTrue( closed.get() );
+        assertTrue( lazy.isClosed() );
+    }
+
+    @Test
+    public void failed()
+    {
+        CompletableFuture<CacheManager> future = new CompletableFuture<>();
+        IllegalStateException cause = new IllegalStateException( "No cluster" );
+        future.completeExceptionally( cause );
+        LazyCacheManager lazy = new LazyCacheManager( null, future );
+
+        assertTrue( lazy.isStarted() );
+        assertTrue( lazy.isFailed() );
+        assertFalse( lazy.isClosed() );
+        // Closing a manager that never started does nothing
+        lazy.close();
+
+        try {
+            lazy.getDelegate();
+            fail( "Expected CacheException" );
+        }
+        catch( CacheException ex ) {
+            assertSame( cause, ex.getCause() );
+        }
+    }
+}
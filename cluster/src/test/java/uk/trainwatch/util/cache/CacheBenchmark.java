@@ -0,0 +1,95 @@
+/*
+ * Copyright 2015 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.cache;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * JMH benchmark of {@link Cache} under a Zipfian mix of reads and writes.
+ * <p>
+ * Each operation picks a key, reads it and on a miss loads it into the cache. A proportion of operations are writes which
+ * replace the value. Hits and misses are reported as secondary results so the hit rate can be derived.
+ * <p>
+ * @author peter
+ */
+@State( Scope.Benchmark )
+public class CacheBenchmark
+{
+
+    @Param( {"1000", "100000"} )
+    public int maxSize;
+
+    @Param( {"100000"} )
+    public int keySpace;
+
+    @Param( {"0.9", "0.5"} )
+    public double readRatio;
+
+    private Cache<Integer, String> cache;
+    private ZipfGenerator keys;
+    private String[] values;
+
+    @Setup( Level.Trial )
+    public void setUp()
+    {
+        cache = new Cache<>( maxSize, Duration.ofMinutes( 10 ) );
+        keys = new ZipfGenerator( keySpace, 0.99 );
+        values = new String[keySpace];
+        for( int i = 0; i < keySpace; i++ ) {
+            values[i] = "value" + i;
+        }
+        // Prefill so we start measuring a warm cache
+        for( int i = 0; i < maxSize && i < keySpace; i++ ) {
+            cache.put( i, values[i] );
+        }
+    }
+
+    @AuxCounters( AuxCounters.Type.EVENTS )
+    @State( Scope.Thread )
+    public static class Counters
+    {
+
+        public long hits;
+        public long misses;
+        public long writes;
+    }
+
+    @Benchmark
+    public String readWrite( Counters counters )
+    {
+        Integer key = keys.next();
+        if( ThreadLocalRandom.current().nextDouble() >= readRatio ) {
+            counters.writes++;
+            return cache.put( key, values[key] );
+        }
+
+        String v = cache.get( key );
+        if( v == null ) {
+            counters.misses++;
+            return cache.computeIfAbsent( key, k -> values[k] );
+        }
+        counters.hits++;
+        return v;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Runs the cache benchmarks at 1, 4, 16 and 64 threads, reporting throughput, p99 latency and hit rate.
+ * <p>
+ * Run with {@code mvn -Pbenchmark test} from the cluster module. Any arguments are taken as a regular expression
+ * selecting which benchmarks to run.
+ * <p>
+ * @author peter
+ */
+public class CacheBenchmarks
+{
+
+    private static final int[] THREADS = {1, 4, 16, 64};
+
+    public static void main( String... args )
+            throws RunnerException
+    {
+        String include = args.length > 0 ? args[0] : ".*(CacheBenchmark|ConcurrentSQLHashMapBenchmark).*";
+
+        List<RunResult> results = new ArrayList<>();
+        for( int threads: THREADS ) {
+            ChainedOptionsBuilder opts = new OptionsBuilder()
+                    .include( include )
+                    .mode( Mode.Throughput )
+                    .mode( Mode.SampleTime )
+                    .timeUnit( TimeUnit.MICROSECONDS )
+                    .threads( threads )
+                    .forks( 1 )
+                    .warmupIterations( 3 )
+                    .warmupTime( TimeValue.seconds( 2 ) )
+                    .measurementIterations( 5 )
+                    .measurementTime( TimeValue.seconds( 2 ) );
+            results.addAll( new Runner( opts.build() ).run() );
+        }
+
+        report( results );
+    }
+
+    private static void report( Collection<RunResult> results )
+    {
+        System.out.printf( "%n%-60s %8s %14s %12s %10s%n", "Benchmark", "Threads", "ops/us", "p99 us", "Hit rate" );
+        for( RunResult r: results ) {
+            BenchmarkParams p = r.getParams();
+            String name = p.getBenchmark().replaceAll( "^.*\\.", "" ) + p.getParamsKeys().stream()
+                    .map( k -> " " + k + "=" + p.getParam( k ) )
+                    .reduce( "", String::concat );
+
+            Result primary = r.getPrimaryResult();
+            Map<String, Result> secondary = r.getSecondaryResults();
+            if( p.getMode() == Mode.Throughput ) {
+                double hits = score( secondary, "hits" );
+                double misses = score( secondary, "misses" );
+                System.out.printf( "%-60s %8d %14.3f %12s %9.1f%%%n", name, p.getThreads(), primary.getScore(), "",
+                                   hits + misses == 0 ? 0.0 : 100.0 * hits / (hits + misses) );
+            }
+            else if( p.getMode() == Mode.SampleTime ) {
+                System.out.printf( "%-60s %8d %14s %12.3f%n", name, p.getThreads(), "", primary.getStatistics().getPercentile( 99.0 ) );
+            }
+        }
+    }
+
+    private static double score( Map<String, Result> results, String suffix )
+    {
+        return results.entrySet().stream()
+                .filter( e -> e.getKey().endsWith( suffix ) )
+                .mapToDouble( e -> e.getValue().getScore() )
+                .findFirst()
+                .orElse( 0.0 );
+    }
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.cache;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.trainwatch.io.format.DataWriter;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class CacheTest
+{
+
+    private static Cache<Integer, String> offHeapCache( OffHeapStore store )
+    {
+        Cache<Integer, String> cache = new Cache<>( 1000L, Duration.ofMinutes( 10 ), Weigher.string(), Long.MAX_VALUE );
+        cache.setOffHeap( store, CacheCodec.string(), 0 );
+        return cache;
+    }
+
+    @Test
+    public void offHeapReturnValues()
+    {
+        OffHeapStore store = new OffHeapStore( 1024, 1 );
+        Cache<Integer, String> cache = offHeapCache( store );
+
+        assertNull( cache.put( 1, "one" ) );
+        assertEquals( "one", cache.get( 1 ) );
+        assertEquals( OffHeapStore.MIN_BLOCK, store.getUsed() );
+
+        // Replacing returns the previous value
+        assertEquals( "one", cache.put( 1, "uno" ) );
+        assertEquals( "uno", cache.get( 1 ) );
+        assertEquals( OffHeapStore.MIN_BLOCK, store.getUsed() );
+
+        assertEquals( "uno", cache.putIfAbsent( 1, "ein" ) );
+        assertEquals( "uno", cache.get( 1 ) );
+        assertEquals( OffHeapStore.MIN_BLOCK, store.getUsed() );
+
+        assertEquals( "uno", cache.remove( 1 ) );
+        assertNull( cache.get( 1 ) );
+        assertNull( cache.remove( 1 ) );
+        assertEquals( 0L, store.getUsed() );
+    }
+
+    @Test
+    public void offHeapWeight()
+    {
+        Cache<Integer, String> cache = offHeapCache( new OffHeapStore( 1024, 1 ) );
+
+        cache.put( 1, "a" );
+        cache.put( 2, "bcd" );
+        assertEquals( 42L + 46L, cache.getWeight() );
+
+        cache.put( 1, "efghi" );
+        assertEquals( 50L + 46L, cache.getWeight() );
+
+        cache.compute( 2, ( k, v ) -> v + "x" );
+        assertEquals( 50L + 48L, cache.getWeight() );
+        assertEquals( "bcdx", cache.get( 2 ) );
+
+        cache.remove( 1 );
+        assertEquals( 48L, cache.getWeight() );
+
+        cache.clear();
+        assertEquals( 0L, cache.getWeight() );
+        assertTrue( cache.isEmpty() );
+    }
+
+    @Test
+    public void offHeapSlabReuse()
+    {
+        // One slab of 16 minimum sized blocks
+        OffHeapStore store = new OffHeapStore( 1024, 1 );
+        Cache<Integer, String> cache = offHeapCache( store );
+
+        for( int i = 0; i < 16; i++ ) {
+            cache.put( i, "v" + i );
+        }
+        assertEquals( 1024L, store.getUsed() );
+        assertEquals( 1024L, store.getAllocated() );
+
+        // The store is full so this is held on the heap
+        cache.put( 16, "v16" );
+        assertEquals( "v16", cache.get( 16 ) );
+        assertEquals( 1024L, store.getUsed() );
+
+        // Freed blocks are reused without allocating another slab
+        assertEquals( "v3", cache.remove( 3 ) );
+        assertEquals( 1024L - OffHeapStore.MIN_BLOCK, store.getUsed() );
+        cache.put( 17, "v17" );
+        assertEquals( 1024L, store.getUsed() );
+        assertEquals( 1024L, store.getAllocated() );
+
+        for( int i = 0; i < 18; i++ ) {
+            assertEquals( i == 3 ? null : "v" + i, cache.get( i ) );
+        }
+    }
+
+    @Test
+    public void close()
+    {
+        OffHeapStore store = new OffHeapStore( 1024, 1 );
+        Cache<Integer, String> cache = offHeapCache( store );
+        cache.put( 1, "one" );
+        assertFalse( cache.isClosed() );
+
+        cache.close();
+        assertTrue( cache.isClosed() );
+        assertTrue( cache.isEmpty() );
+        assertEquals( 0L, store.getUsed() );
+    }
+
+    @Test
+    public void expireByWeight()
+    {
+        Cache<Integer, String> cache = new Cache<>( Weigher.singleton(), 100L, Duration.ofMinutes( 10 ) );
+        for( int i = 0; i < 100; i++ ) {
+            cache.put( i, "v" + i );
+        }
+        assertEquals( 100L, cache.getWeight() );
+        assertEquals( 100, cache.size() );
+
+        // Exceeding the maximum evicts down to 75%
+        cache.put( 100, "v100" );
+        assertEquals( 75L, cache.getWeight() );
+        assertEquals( 75, cache.size() );
+        cache.close();
+    }
+
+    @Test
+    public void onHeapWeight()
+    {
+        Cache<Integer, String> cache = new Cache<>( Weigher.string(), 1000L, Duration.ofMinutes( 10 ) );
+
+        cache.put( 1, "a" );
+        assertEquals( 42L, cache.getWeight() );
+
+        // Replacing a value applies the difference
+        cache.put( 1, "abc" );
+        assertEquals( 46L, cache.getWeight() );
+        assertEquals( "abc", cache.putIfAbsent( 1, "abcdefgh" ) );
+        assertEquals( 46L, cache.getWeight() );
+
+        cache.compute( 1, ( k, v ) -> v + "d" );
+        assertEquals( 48L, cache.getWeight() );
+        cache.computeIfPresent( 1, ( k, v ) -> "e" );
+        assertEquals( 42L, cache.getWeight() );
+        cache.computeIfAbsent( 2, k -> "fg" );
+        assertEquals( 42L + 44L, cache.getWeight() );
+
+        // merge adds a new value then replaces it with the merged value
+        cache.merge( 3, "h", String::concat );
+        assertEquals( 42L + 44L + 42L, cache.getWeight() );
+        cache.merge( 3, "ijk", String::concat );
+        assertEquals( "hijk", cache.get( 3 ) );
+        assertEquals( 42L + 44L + 48L, cache.getWeight() );
+
+        // Removing via compute or merge releases the weight
+        assertNull( cache.compute( 1, ( k, v ) -> null ) );
+        assertEquals( 44L + 48L, cache.getWeight() );
+        assertNull( cache.merge( 3, "x", ( a, b ) -> null ) );
+        assertEquals( 44L, cache.getWeight() );
+
+        assertEquals( "1 entries weighing 44/1000", cache.getStatistics() );
+
+        cache.remove( 2 );
+        assertEquals( 0L, cache.getWeight() );
+        assertEquals( "0 entries weighing 0/1000", cache.getStatistics() );
+        cache.close();
+    }
+
+    @Test
+    public void statistics()
+    {
+        Cache<Integer, String> cache = new Cache<>();
+        cache.put( 1, "a" );
+        cache.put( 2, "b" );
+        assertEquals( 0L, cache.getWeight() );
+        assertEquals( Long.MAX_VALUE, cache.getMaxWeight() );
+        assertEquals( "2 entries", cache.getStatistics() );
+        cache.close();
+    }
+
+    @Test
+    public void getAllPresent()
+            throws SQLException
+    {
+        Cache<Integer, String> cache = new Cache<>();
+        cache.put( 1, "one" );
+        cache.put( 2, "two" );
+
+        Map<Integer, String> result = cache.getAll( Arrays.asList( 1, 2 ), missing -> {
+                                                fail( "Loader called for " + missing );
+                                                return null;
+                                            } );
+        assertEquals( 2, result.size() );
+        assertEquals( "one", result.get( 1 ) );
+        assertEquals( "two", result.get( 2 ) );
+        cache.close();
+    }
+
+    @Test
+    public void getAllMissing()
+            throws SQLException
+    {
+        Cache<Integer, String> cache = new Cache<>();
+        cache.put( 1, "one" );
+
+        List<Set<Integer>> requested = new ArrayList<>();
+        Map<Integer, String> result = cache.getAll( Arrays.asList( 1, 2, 3, 4 ), missing -> {
+                                                requested.add( new HashSet<>( missing ) );
+                                                Map<Integer, String> m = new HashMap<>();
+                                                m.put( 2, "two" );
+                                                m.put( 3, "three" );
+                                                return m;
+                                            } );
+
+        assertEquals( 1, requested.size() );
+        assertEquals( new HashSet<>( Arrays.asList( 2, 3, 4 ) ), requested.get( 0 ) );
+
+        // 4 wasn't loaded so is absent
+        assertEquals( 3, result.size() );
+        assertEquals( "one", result.get( 1 ) );
+        assertEquals( "two", result.get( 2 ) );
+        assertEquals( "three", result.get( 3 ) );
+        assertFalse( result.containsKey( 4 ) );
+
+        // Loaded values are now cached
+        assertEquals( "three", cache.get( 3 ) );
+        assertEquals( 3, cache.size() );
+        cache.close();
+    }
+
+    @Test
+    public void getAllConcurrentlyPopulated()
+            throws SQLException
+    {
+        Cache<Integer, String> cache = new Cache<>();
+
+        Map<Integer, String> result = cache.getAll( Arrays.asList( 1, 2 ), missing -> {
+                                                // Another thread populates 1 whilst we are loading
+                                                cache.put( 1, "existing" );
+                                                Map<Integer, String> m = new HashMap<>();
+                                                m.put( 1, "loaded" );
+                                                m.put( 2, "loaded" );
+                                                return m;
+                                            } );
+
+        assertEquals( "existing", result.get( 1 ) );
+        assertEquals( "existing", cache.get( 1 ) );
+        assertEquals( "loaded", result.get( 2 ) );
+        assertEquals( "loaded", cache.get( 2 ) );
+        cache.close();
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static long epochMillis( LocalDateTime dt )
+    {
+        return dt.toInstant( ZoneOffset.UTC ).toEpochMilli();
+    }
+
+    @Test
+    public void snapshotRoundTrip()
+            throws IOException
+    {
+        Path path = folder.getRoot().toPath().resolve( "cache.dat" );
+
+        // Write a snapshot by hand so one entry can be older than maxAge
+        LocalDateTime now = LocalDateTime.now();
+        try( DataWriter w = new DataWriter( Files.newOutputStream( path ) ) ) {
+            w.writeInt( Cache.SNAPSHOT_MAGIC );
+            w.writeBoolean( true );
+            w.writeLong( epochMillis( now.minusHours( 1 ) ) );
+            w.writeInt( 1 );
+            w.writeString( "expired" );
+            w.writeBoolean( true );
+            w.writeLong( epochMillis( now ) );
+            w.writeInt( 2 );
+            w.writeString( "restored" );
+            w.writeBoolean( true );
+            w.writeLong( epochMillis( now ) );
+            w.writeInt( 3 );
+            w.writeString( "stale" );
+            w.writeBoolean( false );
+        }
+
+        Cache<Integer, String> cache = new Cache<>( 1000L, Duration.ofMinutes( 10 ) );
+        cache.put( 3, "current" );
+
+        assertEquals( 1, cache.restore( path, CacheCodec.integer(), CacheCodec.string() ) );
+        assertNull( cache.get( 1 ) );
+        assertEquals( "restored", cache.get( 2 ) );
+        // Keys already in the cache are newer than the snapshot
+        assertEquals( "current", cache.get( 3 ) );
+
+        // Round trip through snapshot into a new cache
+        assertEquals( 2, cache.snapshot( path, CacheCodec.integer(), CacheCodec.string() ) );
+        Cache<Integer, String> copy = new Cache<>( 1000L, Duration.ofMinutes( 10 ) );
+        assertEquals( 2, copy.restore( path, CacheCodec.integer(), CacheCodec.string() ) );
+        assertEquals( "restored", copy.get( 2 ) );
+        assertEquals( "current", copy.get( 3 ) );
+
+        cache.close();
+        copy.close();
+    }
+
+    @Test
+    public void warmStartHook()
+            throws Exception
+    {
+        Path path = folder.getRoot().toPath().resolve( "cache.dat" );
+        Cache<Integer, String> source = new Cache<>( 1000L, Duration.ofMinutes( 10 ) );
+        source.put( 1, "one" );
+        source.snapshot( path, CacheCodec.integer(), CacheCodec.string() );
+        source.close();
+        byte[] original = Files.readAllBytes( path );
+
+        // Hold the restore part way through
+        CountDownLatch release = new CountDownLatch( 1 );
+        CacheCodec<String> blocking = CacheCodec.of( DataWriter::writeString, r -> {
+            try {
+                release.await( 10, TimeUnit.SECONDS );
+            }
+            catch( InterruptedException ex ) {
+                throw new InterruptedIOException();
+            }
+            return r.readString();
+        } );
+
+        Cache<Integer, String> cache = new Cache<>( 1000L, Duration.ofMinutes( 10 ) );
+        CompletableFuture<Integer> restored = cache.warmStart( path, CacheCodec.integer(), blocking );
+        Thread hook = cache.getSnapshotHook();
+        assertNotNull( hook );
+
+        try {
+            cache.warmStart( path, CacheCodec.integer(), blocking );
+            fail( "Only one hook per cache" );
+        }
+        catch( IllegalStateException ex ) {
+            // expected
+        }
+
+        // Shutting down before the restore completes keeps the existing snapshot
+        cache.put( 2, "two" );
+        hook.run();
+        assertArrayEquals( original, Files.readAllBytes( path ) );
+
+        release.countDown();
+        assertEquals( Integer.valueOf( 1 ), restored.get( 10, TimeUnit.SECONDS ) );
+        hook.run();
+        Cache<Integer, String> copy = new Cache<>( 1000L, Duration.ofMinutes( 10 ) );
+        assertEquals( 2, copy.restore( path, CacheCodec.integer(), CacheCodec.string() ) );
+        copy.close();
+        byte[] written = Files.readAllBytes( path );
+
+        // Closing removes the hook and a closed cache doesn't write an empty snapshot
+        cache.close();
+        assertNull( cache.getSnapshotHook() );
+        assertFalse( Runtime.getRuntime().removeShutdownHook( hook ) );
+        hook.run();
+        assertArrayEquals( written, Files.readAllBytes( path ) );
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.cache;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import uk.trainwatch.util.sql.ConcurrentSQLHashMap;
+
+/**
+ * JMH benchmark of {@link ConcurrentSQLHashMap#computeSQLIfAbsent(java.lang.Object, uk.trainwatch.util.sql.SQLFunction)}
+ * with a loader simulating a slow database query.
+ * <p>
+ * A proportion of operations remove their key so the loader continues to be called throughout the run. This shows how
+ * much a slow loader blocks other threads accessing the same bin of the map.
+ * <p>
+ * @author peter
+ */
+@State( Scope.Benchmark )
+public class ConcurrentSQLHashMapBenchmark
+{
+
+    @Param( {"10000"} )
+    public int keySpace;
+
+    /**
+     * Time taken by the loader in microseconds
+     */
+    @Param( {"0", "100", "1000"} )
+    public long loadMicros;
+
+    @Param( {"0.01"} )
+    public double removeRatio;
+
+    private ConcurrentSQLHashMap<Integer, String> map;
+    private ZipfGenerator keys;
+    private long loadNanos;
+
+    @Setup( Level.Trial )
+    public void setUp()
+    {
+        map = new ConcurrentSQLHashMap<>();
+        keys = new ZipfGenerator( keySpace, 0.99 );
+        loadNanos = TimeUnit.MICROSECONDS.toNanos( loadMicros );
+    }
+
+    @AuxCounters( AuxCounters.Type.EVENTS )
+    @State( Scope.Thread )
+    public static class Counters
+    {
+
+        public long hits;
+        public long misses;
+    }
+
+    private String load( Integer key, Counters counters )
+            throws SQLException
+    {
+        counters.misses++;
+        if( loadNanos > 0 ) {
+            LockSupport.parkNanos( loadNanos );
+        }
+        return "value" + key;
+    }
+
+    @Benchmark
+    public String computeSQLIfAbsent( Counters counters )
+            throws SQLException
+    {
+        Integer key = keys.next();
+        if( ThreadLocalRandom.current().nextDouble() < removeRatio ) {
+            return map.remove( key );
+        }
+
+        long misses = counters.misses;
+        String v = map.computeSQLIfAbsent( key, k -> load( k, counters ) );
+        if( misses == counters.misses ) {
+            counters.hits++;
+        }
+        return v;
+    }
+}
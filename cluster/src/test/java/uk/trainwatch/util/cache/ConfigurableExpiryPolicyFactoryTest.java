@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.cache.expiry.Duration;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import uk.trainwatch.util.config.impl.MapConfiguration;
+
+/**
+ *
+ * @author peter
+ */
+public class ConfigurableExpiryPolicyFactoryTest
+{
+
+    private static ConfigurableExpiryPolicy create( String duration, String expiry )
+    {
+        Map<String, Object> map = new HashMap<>();
+        map.put( ConfigurableExpiryPolicyFactory.DURATION, duration );
+        if( expiry != null ) {
+            map.put( ConfigurableExpiryPolicyFactory.EXPIRY, expiry );
+        }
+        return (ConfigurableExpiryPolicy) ConfigurableExpiryPolicyFactory.fromConfiguration( new MapConfiguration( map ) ).
+                create();
+    }
+
+    @Test
+    public void subSecondDuration()
+    {
+        ConfigurableExpiryPolicy p = create( "PT0.5S", null );
+        assertEquals( new Duration( TimeUnit.MILLISECONDS, 500L ), p.getDuration() );
+        assertEquals( ConfigurableExpiryPolicy.Mode.UPDATED, p.getMode() );
+
+        assertEquals( new Duration( TimeUnit.MILLISECONDS, 30000L ), create( "30", null ).getDuration() );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void zeroDuration()
+    {
+        create( "PT0S", null );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void negativeDuration()
+    {
+        create( "-5", null );
+    }
+
+    @Test
+    public void modeIgnoresCase()
+    {
+        assertEquals( ConfigurableExpiryPolicy.Mode.ACCESSED, create( "PT1M", "accessed" ).getMode() );
+        assertEquals( ConfigurableExpiryPolicy.Mode.CREATED, create( "PT1M", " Created " ).getMode() );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void unknownMode()
+    {
+        create( "PT1M", "written" );
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.cache;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import javax.cache.configuration.CacheEntryListenerConfiguration;
+import javax.cache.event.CacheEntryEvent;
+import javax.cache.event.CacheEntryListener;
+import javax.cache.event.CacheEntryRemovedListener;
+import javax.cache.event.CacheEntryUpdatedListener;
+import javax.cache.event.EventType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class NearCacheTest
+{
+
+    private Map<String, String> data;
+    private List<CacheEntryListener<? super String, ? super String>> listeners;
+    private javax.cache.Cache<String, String> remote;
+    private NearCache<String, String> near;
+    /**
+     * Called after the remote cache has read a value but before it is returned
+     */
+    private Consumer<String> reading;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp()
+    {
+        data = new ConcurrentHashMap<>();
+        listeners = new ArrayList<>();
+        reading = k -> {
+        };
+
+        // Just enough of a distributed cache to hold values and deliver events
+        remote = (javax.cache.Cache<String, String>) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[]{javax.cache.Cache.class},
+                ( proxy, method, args ) -> {
+                    switch( method.getName() ) {
+                        case "get":
+                            String v = data.get( (String) args[0] );
+                            reading.accept( (String) args[0] );
+                            return v;
+                        case "put":
+                            data.put( (String) args[0], (String) args[1] );
+                            return null;
+                        case "remove":
+                            return data.remove( (String) args[0] ) != null;
+                        case "isClosed":
+                            return false;
+                        case "registerCacheEntryListener":
+                            listeners.add( ((CacheEntryListenerConfiguration<String, String>) args[0]).
+                                    getCacheEntryListenerFactory().create() );
+                            return null;
+                        case "deregisterCacheEntryListener":
+                            listeners.clear();
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException( method.getName() );
+                    }
+                } );
+
+        near = new NearCache<>( remote, 100, Duration.ofMinutes( 10 ) );
+    }
+
+    @After
+    public void tearDown()
+    {
+        near.close();
+    }
+
+    /**
+     * Simulate another node updating an entry
+     */
+    @SuppressWarnings("unchecked")
+    private void remoteUpdate( String key, String value )
+    {
+        data.put( key, value );
+        Iterable<CacheEntryEvent<? extends String, ? extends String>> events = event( EventType.UPDATED, key, value );
+        listeners.forEach( l -> ((CacheEntryUpdatedListener<String, String>) l).onUpdated( events ) );
+    }
+
+    /**
+     * Simulate another node removing an entry
+     */
+    @SuppressWarnings("unchecked")
+    private void remoteRemove( String key )
+    {
+        String value = data.remove( key );
+        Iterable<CacheEntryEvent<? extends String, ? extends String>> events = event( EventType.REMOVED, key, value );
+        listeners.forEach( l -> ((CacheEntryRemovedListener<String, String>) l).onRemoved( events ) );
+    }
+
+    private Iterable<CacheEntryEvent<? extends String, ? extends String>> event( EventType type, String key, String value )
+    {
+        return Collections.singletonList( new CacheEntryEvent<String, String>( remote, type )
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public String getOldValue()
+            {
+                return null;
+            }
+
+            @Override
+            public boolean isOldValueAvailable()
+            {
+                return false;
+            }
+
+            @Override
+            public String getKey()
+            {
+                return key;
+            }
+
+            @Override
+            public String getValue()
+            {
+                return value;
+            }
+
+            @Override
+            public <T> T unwrap( Class<T> clazz )
+            {
+                throw new IllegalArgumentException();
+            }
+        } );
+    }
+
+    @Test
+    public void hitRatio()
+    {
+        data.put( "a", "1" );
+        assertEquals( 0.0, near.getHitRatio(), 0.0 );
+
+        assertEquals( "1", near.get( "a" ) );
+        assertEquals( "1", near.get( "a" ) );
+        assertEquals( "1", near.get( "a" ) );
+        assertEquals( "1", near.get( "a" ) );
+
+        // Absent keys are not held locally
+        assertNull( near.get( "b" ) );
+
+        assertEquals( 3L, near.getHits() );
+        assertEquals( 2L, near.getMisses() );
+        assertEquals( 0.6, near.getHitRatio(), 1e-9 );
+        assertEquals( 1, near.getLocalSize() );
+    }
+
+    @Test
+    public void remoteUpdateInvalidates()
+    {
+        data.put( "a", "1" );
+        assertEquals( "1", near.get( "a" ) );
+        assertEquals( 1, near.getLocalSize() );
+
+        remoteUpdate( "a", "2" );
+        assertEquals( 0, near.getLocalSize() );
+        assertEquals( "2", near.get( "a" ) );
+        assertEquals( 2L, near.getMisses() );
+        assertEquals( "2", near.get( "a" ) );
+        assertEquals( 1L, near.getHits() );
+    }
+
+    @Test
+    public void remoteRemoveInvalidates()
+    {
+        data.put( "a", "1" );
+        assertEquals( "1", near.get( "a" ) );
+
+        remoteRemove( "a" );
+        assertEquals( 0, near.getLocalSize() );
+        assertNull( near.get( "a" ) );
+    }
+
+    @Test
+    public void localWrites()
+    {
+        near.put( "a", "1" );
+        assertEquals( "1", near.get( "a" ) );
+
+        near.put( "a", "2" );
+        assertEquals( "2", near.get( "a" ) );
+
+        assertTrue( near.remove( "a" ) );
+        assertNull( near.get( "a" ) );
+        assertFalse( near.remove( "a" ) );
+    }
+
+    @Test
+    public void close()
+    {
+        data.put( "a", "1" );
+        near.get( "a" );
+        assertEquals( 1, listeners.size() );
+
+        near.close();
+        assertTrue( listeners.isEmpty() );
+        assertEquals( 0, near.getLocalSize() );
+    }
+
+    @Test
+    public void invalidatedWhilstReading()
+    {
+        data.put( "a", "1" );
+        data.put( "b", "1" );
+
+        // Invalidating another key doesn't stop a value being held locally
+        reading = k -> {
+            if( "b".equals( k ) ) {
+                remoteUpdate( "a", "2" );
+            }
+        };
+        assertEquals( "1", near.get( "b" ) );
+        assertEquals( 1, near.getLocalSize() );
+        assertEquals( 1L, near.getInvalidations() );
+
+        // but invalidating the key being read does, as the value read may be stale
+        reading = k -> {
+            if( "a".equals( k ) ) {
+                remoteUpdate( "a", "3" );
+            }
+        };
+        assertEquals( "2", near.get( "a" ) );
+        assertEquals( 1, near.getLocalSize() );
+
+        reading = k -> {
+        };
+        assertEquals( "3", near.get( "a" ) );
+        assertEquals( "3", near.get( "a" ) );
+        assertEquals( "1", near.get( "b" ) );
+        assertEquals( 2L, near.getHits() );
+        assertEquals( 3L, near.getMisses() );
+
+        // invalidateAll stops anything being held
+        reading = k -> near.invalidateAll();
+        near.invalidate( "b" );
+        assertEquals( "1", near.get( "b" ) );
+        assertEquals( 0, near.getLocalSize() );
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.cache;
+
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+import uk.trainwatch.util.sql.ConcurrentSQLHashMap;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link LongKey}, {@link IntIntKey}, {@link LongIntKey} and {@link LongLongKey}
+ *
+ * @author peter
+ */
+public class PrimitiveKeyTest
+{
+
+    private static void assertKeyEquals( Object a, Object b )
+    {
+        assertEquals( a, b );
+        assertEquals( b, a );
+        assertEquals( a.hashCode(), b.hashCode() );
+    }
+
+    @Test
+    public void equalsAndHashCode()
+    {
+        assertKeyEquals( new LongKey( 42L ), new LongKey( 42L ) );
+        assertKeyEquals( new IntIntKey( 1, 2 ), new IntIntKey( 1, 2 ) );
+        assertKeyEquals( new LongIntKey( 1L, 2 ), new LongIntKey( 1L, 2 ) );
+        assertKeyEquals( new LongLongKey( 1L, 2L ), new LongLongKey( 1L, 2L ) );
+
+        assertNotEquals( new LongKey( 42L ), new LongKey( 43L ) );
+        assertNotEquals( new IntIntKey( 1, 2 ), new IntIntKey( 2, 1 ) );
+        assertNotEquals( new LongIntKey( 1L, 2 ), new LongIntKey( 2L, 1 ) );
+        assertNotEquals( new LongLongKey( 1L, 2L ), new LongLongKey( 2L, 1L ) );
+
+        // Keys of different types never match even with the same values
+        assertNotEquals( new IntIntKey( 1, 2 ), new LongIntKey( 1L, 2 ) );
+        assertNotEquals( new LongIntKey( 1L, 2 ), new LongLongKey( 1L, 2L ) );
+        assertNotEquals( new LongKey( 1L ), null );
+
+        // A probe is equal to a key with the same values
+        assertKeyEquals( new LongKey( 42L ), new LongKey.Probe().set( 42L ) );
+        assertKeyEquals( new IntIntKey( 1, 2 ), new IntIntKey.Probe().set( 1, 2 ) );
+        assertKeyEquals( new LongIntKey( 1L, 2 ), new LongIntKey.Probe().set( 1L, 2 ) );
+        assertKeyEquals( new LongLongKey( 1L, 2L ), new LongLongKey.Probe().set( 1L, 2L ) );
+    }
+
+    @Test
+    public void smallIntPairsDoNotCollide()
+    {
+        // e.g. day of year and hour, which collide heavily with a 31 * a + b hash
+        Set<Integer> hashes = new HashSet<>();
+        Set<Integer> buckets = new HashSet<>();
+        for( int day = 0; day < 366; day++ ) {
+            for( int hour = 0; hour < 24; hour++ ) {
+                int h = new IntIntKey( day, hour ).hashCode();
+                hashes.add( h );
+                buckets.add( (h ^ (h >>> 16)) & 1023 );
+            }
+        }
+        assertEquals( 366 * 24, hashes.size() );
+        // 8784 keys should fill almost every one of 1024 hash table buckets
+        assertTrue( "Only " + buckets.size() + " buckets used", buckets.size() > 1000 );
+
+        hashes.clear();
+        for( int a = 0; a < 100; a++ ) {
+            for( int b = 0; b < 100; b++ ) {
+                hashes.add( new LongIntKey( a, b ).hashCode() );
+                hashes.add( new LongLongKey( a, b ).hashCode() );
+            }
+        }
+        assertEquals( 10000, hashes.size() );
+    }
+
+    @Test
+    public void probeLookupInCache()
+    {
+        Cache<IntIntKey, String> cache = new Cache<>();
+        cache.put( new IntIntKey( 1, 2 ), "a" );
+        cache.put( new IntIntKey( 2, 1 ), "b" );
+
+        IntIntKey.Probe probe = new IntIntKey.Probe();
+        assertEquals( "a", cache.get( probe.set( 1, 2 ) ) );
+        assertEquals( "b", cache.get( probe.set( 2, 1 ) ) );
+        assertNull( cache.get( probe.set( 1, 1 ) ) );
+        assertTrue( cache.containsKey( probe.set( 1, 2 ) ) );
+
+        // Reusing the probe doesn't affect the stored keys
+        assertEquals( "a", cache.get( new IntIntKey( 1, 2 ) ) );
+        assertEquals( "a", cache.computeIfAbsent( probe.set( 1, 2 ), k -> "c" ) );
+        cache.close();
+    }
+
+    @Test
+    public void probeLookupInMap()
+    {
+        ConcurrentSQLHashMap<LongLongKey, String> map = new ConcurrentSQLHashMap<>();
+        for( long i = 0; i < 100; i++ ) {
+            map.put( new LongLongKey( i, i * 2 ), "v" + i );
+        }
+
+        LongLongKey.Probe probe = new LongLongKey.Probe();
+        for( long i = 0; i < 100; i++ ) {
+            assertEquals( "v" + i, map.get( probe.set( i, i * 2 ) ) );
+        }
+        assertNull( map.get( probe.set( 1L, 1L ) ) );
+        assertEquals( 100, map.size() );
+    }
+
+    @Test
+    public void probeCannotBeStored()
+    {
+        Cache<LongKey, String> cache = new Cache<>();
+        LongKey.Probe probe = new LongKey.Probe();
+
+        try {
+            cache.put( probe.set( 1L ), "a" );
+            fail( "Probe stored by put" );
+        }
+        catch( IllegalArgumentException ex ) {
+            // expected
+        }
+
+        try {
+            cache.computeIfAbsent( probe.set( 2L ), k -> "b" );
+            fail( "Probe stored by computeIfAbsent" );
+        }
+        catch( IllegalArgumentException ex ) {
+            // expected
+        }
+
+        // Nothing was stored and the probe can still be used for lookups
+        assertTrue( cache.isEmpty() );
+        cache.put( new LongKey( 1L ), "a" );
+        assertEquals( "a", cache.get( probe.set( 1L ) ) );
+        cache.close();
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2015 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.cache;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Generates keys following a Zipfian distribution, so a few keys are very popular and most are rarely used, which is
+ * how real cache traffic behaves.
+ * <p>
+ * The cumulative distribution is precomputed so each key costs a single binary search.
+ * <p>
+ * @author peter
+ */
+public class ZipfGenerator
+{
+
+    private final double[] cdf;
+
+    /**
+     * @param size     number of distinct keys
+     * @param exponent skew, 0 is uniform and the higher the value the more skewed, typically 0.99
+     */
+    public ZipfGenerator( int size, double exponent )
+    {
+        cdf = new double[size];
+        double sum = 0;
+        for( int i = 0; i < size; i++ ) {
+            sum += 1.0 / Math.pow( i + 1, exponent );
+            cdf[i] = sum;
+        }
+        for( int i = 0; i < size; i++ ) {
+            cdf[i] /= sum;
+        }
+    }
+
+    /**
+     * @return next key, 0 being the most popular
+     */
+    public int next()
+    {
+        int i = Arrays.binarySearch( cdf, ThreadLocalRandom.current().nextDouble() );
+        return Math.min( i < 0 ? -i - 1 : i, cdf.length - 1 );
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import uk.trainwatch.util.counter.Histogram;
+
+/**
+ * A {@link Consumer} which collects values into batches, passing each batch to a sink once it's full or the oldest value
+ * in it has waited for a maximum delay.
+ * <p>
+ * Any number of threads may call {@link #accept(java.lang.Object)}. The delay is timed using the shared scheduler in
+ * {@link DaemonThreadFactory} but a batch whose delay expires is passed to the sink from the cached executor, so a slow
+ * sink can't hold up the scheduler's other tasks. Batches are passed to the sink one at a time and in the order they
+ * were filled; a full batch is passed on by the thread that filled it, so a slow sink will hold back producers rather
+ * than let batches build up without limit.
+ * <p>
+ * The size of each batch and the time from it's first value being accepted to the sink completing are recorded in
+ * {@link Histogram}s.
+ * <p>
+ * @author peter
+ * @param <T> Type consumed
+ * <p>
+ * @see Consumers#batch(int, java.time.Duration, java.util.function.Consumer)
+ */
+public class BatchingConsumer<T>
+        implements Consumer<T>,
+                   AutoCloseable
+{
+
+    private static final Logger LOG = Logger.getLogger( BatchingConsumer.class.getName() );
+
+    private final int maxSize;
+    private final long maxDelay;
+    private final Consumer<List<T>> sink;
+    private final Histogram batchSize;
+    private final Histogram latency;
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * Guards the sink so only one batch is passed to it at a time
+     */
+    private final Object sinkLock = new Object();
+
+    // Guarded by this
+    private List<T> buffer;
+    private long firstNanos;
+    private long generation;
+    private ScheduledFuture<?> timer;
+    private final Deque<Batch<T>> pending = new ArrayDeque<>();
+    private boolean closed;
+
+    /**
+     * Create a BatchingConsumer
+     * <p>
+     * @param maxSize  maximum number of values in a batch
+     * @param maxDelay maximum time a value waits before it's batch is passed to the sink
+     * @param sink     Consumer of each batch
+     */
+    public BatchingConsumer( int maxSize, Duration maxDelay, Consumer<List<T>> sink )
+    {
+        this( null, maxSize, maxDelay, sink );
+    }
+
+    /**
+     * Create a BatchingConsumer whose metrics are reported to {@link uk.trainwatch.util.counter.RateStatistics}
+     * <p>
+     * @param label    label of the metrics, label.size and label.latency. null to not report them
+     * @param maxSize  maximum number of values in a batch
+     * @param maxDelay maximum time a value waits before it's batch is passed to the sink
+     * @param sink     Consumer of each batch
+     */
+    public BatchingConsumer( String label, int maxSize, Duration maxDelay, Consumer<List<T>> sink )
+    {
+        if( maxSize < 1 ) {
+            throw new IllegalArgumentException( "maxSize must be at least 1" );
+        }
+        this.maxSize = maxSize;
+        this.maxDelay = maxDelay.toNanos();
+        this.sink = Objects.requireNonNull( sink );
+        batchSize = new Histogram( label == null ? null : label + ".size" );
+        latency = new Histogram( label == null ? null : label + ".latency" );
+        buffer = new ArrayList<>( maxSize );
+    }
+
+    @Override
+    public void accept( T t )
+    {
+        boolean full;
+        synchronized( this ) {
+            if( closed ) {
+                throw new IllegalStateException( "BatchingConsumer has been closed" );
+            }
+
+            buffer.add( t );
+            if( buffer.size() == 1 ) {
+                firstNanos = System.nanoTime();
+                long gen = generation;
+                timer = DaemonThreadFactory.INSTANCE.schedule( () -> expire( gen ), maxDelay, TimeUnit.NANOSECONDS );
+            }
+
+            full = buffer.size() >= maxSize;
+            if( full ) {
+                swap();
+            }
+        }
+
+        if( full ) {
+            drain();
+        }
+    }
+
+    /**
+     * Called by the scheduler once the oldest value of a batch has waited for maxDelay. Only the swap is done here, the
+     * sink is called from the cached executor as the scheduler's threads are shared.
+     */
+    private void expire( long gen )
+    {
+        boolean expired;
+        synchronized( this ) {
+            // Ignore if the batch has already been flushed
+            expired = gen == generation && !buffer.isEmpty();
+            if( expired ) {
+                swap();
+            }
+        }
+        if( expired ) {
+            DaemonThreadFactory.INSTANCE.getCachedExecutor().execute( this::drain );
+        }
+    }
+
+    /**
+     * Move the buffer to the pending queue. Must be called whilst holding the lock on this
+     */
+    private void swap()
+    {
+        pending.addLast( new Batch<>( buffer, firstNanos ) );
+        buffer = new ArrayList<>( maxSize );
+        generation++;
+        if( timer != null ) {
+            timer.cancel( false );
+            timer = null;
+        }
+    }
+
+    private synchronized Batch<T> poll()
+    {
+        return pending.pollFirst();
+    }
+
+    /**
+     * Pass pending batches to the sink in order
+     */
+    private void drain()
+    {
+        synchronized( sinkLock ) {
+            Batch<T> b;
+            while( (b = poll()) != null ) {
+                try {
+                    sink.accept( b.values );
+                }
+                catch( RuntimeException ex ) {
+                    failures.increment();
+                    LOG.log( Level.SEVERE, "Batch of " + b.values.size() + " failed", ex );
+                }
+                batchSize.record( b.values.size() );
+                latency.recordSince( b.firstNanos );
+            }
+        }
+    }
+
+    /**
+     * Pass any values collected so far to the sink
+     */
+    public void flush()
+    {
+        synchronized( this ) {
+            if( !buffer.isEmpty() ) {
+                swap();
+            }
+        }
+        drain();
+    }
+
+    /**
+     * Flush any values collected so far, stop accepting values and stop reporting the metrics
+     */
+    @Override
+    public void close()
+    {
+        synchronized( this ) {
+            if( closed ) {
+                return;
+            }
+            closed = true;
+        }
+        flush();
+        batchSize.cancel();
+        latency.cancel();
+    }
+
+    /**
+     * @return number of values waiting to be passed to the sink
+     */
+    public synchronized int getBuffered()
+    {
+        int n = buffer.size();
+        for( Batch<T> b: pending ) {
+            n += b.values.size();
+        }
+        return n;
+    }
+
+    /**
+     * @return the size of each batch passed to the sink
+     */
+    public Histogram getBatchSize()
+    {
+        return batchSize;
+    }
+
+    /**
+     * @return time in nanoseconds from the first value of each batch being accepted to the sink completing
+     */
+    public Histogram getLatency()
+    {
+        return latency;
+    }
+
+    /**
+     * @return number of batches where the sink threw an exception
+     */
+    public long getFailures()
+    {
+        return failures.sum();
+    }
+
+    private static final class Batch<T>
+    {
+
+        private final List<T> values;
+        private final long firstNanos;
+
+        private Batch( List<T> values, long firstNanos )
+        {
+            this.values = values;
+            this.firstNanos = firstNanos;
+        }
+    }
+}
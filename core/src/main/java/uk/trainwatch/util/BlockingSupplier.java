@@ -24,4 +24,17 @@ public interface BlockingSupplier<T>
     default void setInvalid()
     {
     }
+
+    /**
+     * Return a value if one is available without waiting.
+     * <p>
+     * This is used by a parallel stream to check for a value before it has a fork join worker wait for one. The default
+     * implementation never has a value ready so the worker always waits using {@link #get()}.
+     * <p>
+     * @return value or null if none is available now
+     */
+    default T poll()
+    {
+        return null;
+    }
 }
@@ -18,6 +18,8 @@ import java.util.logging.Logger;
  * <p>
  * It's designed to allow a {@link java.util.stream.Stream} to run in one thread but be fed data from another.
  * <p>
+ * {@link RingBuffer} does the same with much lower hand off latency and is now used by {@link Streams}.
+ * <p>
  * @author Peter T Mount
  * @param <T> Type of object to queue
  * <p>
@@ -111,4 +113,10 @@ public class BlockingSupplierConsumer<T>
         return v;
     }
 
+    @Override
+    public T poll()
+    {
+        return queue.poll();
+    }
+
 }
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util;
+
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * An infinite {@link Spliterator} over a {@link BlockingSupplier}.
+ * <p>
+ * In a parallel stream this splits into a fixed number of infinite spliterators, by default one per thread of the
+ * common fork join pool plus one for the thread running the stream, each of which takes values from the supplier as
+ * they arrive. The values are unordered so this spreads them over those threads without anything being queued behind
+ * the infinite remainder.
+ * <p>
+ * The number of splits is fixed as a fork join task is created for each one and, as none of them ever complete, none
+ * can be released. Splitting for every value or batch would leak a task each time.
+ * <p>
+ * Whilst waiting for a value on a fork join worker the wait is managed by the pool with
+ * {@link ForkJoinPool#managedBlock(java.util.concurrent.ForkJoinPool.ManagedBlocker)} so the pool can add a thread to
+ * keep other work, like other parallel streams, running.
+ * <p>
+ * @author peter
+ * @param <T> Type supplied
+ * <p>
+ * @see Streams#supplierStream(uk.trainwatch.util.BlockingSupplier, java.util.function.Consumer)
+ */
+public class BlockingSupplierSpliterator<T>
+        implements Spliterator<T>
+{
+
+    private final BlockingSupplier<T> supplier;
+    /**
+     * Number of splits left, shared by every spliterator split from the same original
+     */
+    private final AtomicInteger splits;
+
+    /**
+     * Create a spliterator which splits once per thread of the common fork join pool
+     * <p>
+     * @param supplier BlockingSupplier
+     */
+    public BlockingSupplierSpliterator( BlockingSupplier<T> supplier )
+    {
+        this( supplier, ForkJoinPool.getCommonPoolParallelism() + 1 );
+    }
+
+    /**
+     * Create a spliterator
+     * <p>
+     * @param supplier BlockingSupplier
+     * @param leaves   maximum number of spliterators a parallel stream will split this into
+     */
+    public BlockingSupplierSpliterator( BlockingSupplier<T> supplier, int leaves )
+    {
+        this( supplier, new AtomicInteger( Math.max( 1, leaves ) - 1 ) );
+    }
+
+    private BlockingSupplierSpliterator( BlockingSupplier<T> supplier, AtomicInteger splits )
+    {
+        this.supplier = Objects.requireNonNull( supplier );
+        this.splits = splits;
+    }
+
+    @Override
+    public boolean tryAdvance( Consumer<? super T> action )
+    {
+        action.accept( take() );
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining( Consumer<? super T> action )
+    {
+        while( true ) {
+            action.accept( take() );
+        }
+    }
+
+    /**
+     * Take the next value, waiting until one is available
+     */
+    private T take()
+    {
+        T v = supplier.poll();
+        if( v != null ) {
+            return v;
+        }
+
+        if( !(Thread.currentThread() instanceof ForkJoinWorkerThread) ) {
+            return supplier.get();
+        }
+
+        Taker<T> taker = new Taker<>( supplier );
+        try {
+            ForkJoinPool.managedBlock( taker );
+        }
+        catch( InterruptedException ex ) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException( "Interrupted whilst waiting", ex );
+        }
+        return taker.value;
+    }
+
+    @Override
+    public Spliterator<T> trySplit()
+    {
+        int n;
+        do {
+            n = splits.get();
+            if( n <= 0 ) {
+                return null;
+            }
+        } while( !splits.compareAndSet( n, n - 1 ) );
+        return new BlockingSupplierSpliterator<>( supplier, splits );
+    }
+
+    /**
+     * @return the number of further splits allowed between this and every spliterator split from it
+     */
+    int getSplitsRemaining()
+    {
+        return splits.get();
+    }
+
+    @Override
+    public long estimateSize()
+    {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics()
+    {
+        return CONCURRENT;
+    }
+
+    /**
+     * Waits for a value on behalf of the fork join pool
+     */
+    private static class Taker<T>
+            implements ForkJoinPool.ManagedBlocker
+    {
+
+        private final BlockingSupplier<T> supplier;
+        private T value;
+
+        private Taker( BlockingSupplier<T> supplier )
+        {
+            this.supplier = supplier;
+        }
+
+        @Override
+        public boolean block()
+        {
+            if( value == null ) {
+                value = supplier.get();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable()
+        {
+            return value != null || (value = supplier.poll()) != null;
+        }
+    }
+}
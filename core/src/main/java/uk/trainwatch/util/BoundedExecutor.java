@@ -0,0 +1,254 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util;
+
+import java.util.Objects;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread pool with both a maximum number of threads and a maximum number of queued tasks, so a burst of work can't
+ * create threads or queue tasks without limit.
+ * <p>
+ * Unlike a plain {@link ThreadPoolExecutor} with a bounded queue, which only adds threads above the core size once the
+ * queue is full, this pool adds threads up to the maximum before it starts to queue tasks. Threads above the core size
+ * exit once idle for the keep alive time. When both the threads and the queue are exhausted what happens to a task is
+ * decided by the {@link WorkerPool.FullPolicy}.
+ * <p>
+ * @author peter
+ * <p>
+ * @see DaemonThreadFactory#getForkExecutor()
+ */
+public class BoundedExecutor
+        extends ThreadPoolExecutor
+{
+
+    private final WorkerPool.FullPolicy policy;
+    private final long timeout;
+    private final TimeUnit unit;
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder callerRuns = new LongAdder();
+    /**
+     * Tasks submitted but not yet completed
+     */
+    private final AtomicInteger submitted = new AtomicInteger();
+
+    /**
+     * Create an executor which blocks for up to 10 seconds when full
+     * <p>
+     * @param coreThreads number of threads kept when idle
+     * @param maxThreads  maximum number of threads
+     * @param queueSize   maximum number of queued tasks
+     * @param factory     ThreadFactory
+     */
+    public BoundedExecutor( int coreThreads, int maxThreads, int queueSize, ThreadFactory factory )
+    {
+        this( coreThreads, maxThreads, queueSize, WorkerPool.FullPolicy.BLOCK, 10, TimeUnit.SECONDS, factory );
+    }
+
+    /**
+     * Create an executor
+     * <p>
+     * @param coreThreads number of threads kept when idle
+     * @param maxThreads  maximum number of threads
+     * @param queueSize   maximum number of queued tasks
+     * @param policy      what to do with a task when full
+     * @param timeout     timeout when policy is {@link WorkerPool.FullPolicy#BLOCK}
+     * @param unit        TimeUnit of timeout
+     * @param factory     ThreadFactory
+     */
+    public BoundedExecutor( int coreThreads, int maxThreads, int queueSize, WorkerPool.FullPolicy policy,
+                            long timeout, TimeUnit unit, ThreadFactory factory )
+    {
+        super( coreThreads, maxThreads, 60L, TimeUnit.SECONDS, new TaskQueue( queueSize ), factory, new FullHandler() );
+        this.policy = Objects.requireNonNull( policy );
+        this.timeout = timeout;
+        this.unit = Objects.requireNonNull( unit );
+        ((TaskQueue) getQueue()).executor = this;
+    }
+
+    @Override
+    public void execute( Runnable command )
+    {
+        submitted.incrementAndGet();
+        try {
+            super.execute( command );
+        }
+        catch( RejectedExecutionException ex ) {
+            submitted.decrementAndGet();
+            throw ex;
+        }
+    }
+
+    @Override
+    protected void afterExecute( Runnable r, Throwable t )
+    {
+        submitted.decrementAndGet();
+        super.afterExecute( r, t );
+    }
+
+    /**
+     * Called when there's no thread available and the queue has refused the task
+     */
+    private void full( Runnable r )
+    {
+        if( isShutdown() ) {
+            rejected.increment();
+            throw new RejectedExecutionException( "Executor has been shutdown" );
+        }
+
+        TaskQueue queue = (TaskQueue) getQueue();
+
+        // The queue refuses tasks whilst we may add threads, so try it again now we can't
+        if( queue.force( r ) ) {
+            return;
+        }
+
+        switch( policy ) {
+            case BLOCK:
+                try {
+                    if( !queue.force( r, timeout, unit ) ) {
+                        rejected.increment();
+                        throw new RejectedExecutionException( "Unable to queue task after " + timeout + " " + unit );
+                    }
+                }
+                catch( InterruptedException ex ) {
+                    Thread.currentThread().interrupt();
+                    rejected.increment();
+                    throw new RejectedExecutionException( "Queue interrupted", ex );
+                }
+                break;
+
+            case DROP:
+                rejected.increment();
+                submitted.decrementAndGet();
+                break;
+
+            case CALLER_RUNS:
+                callerRuns.increment();
+                try {
+                    r.run();
+                }
+                finally {
+                    submitted.decrementAndGet();
+                }
+                break;
+
+            default:
+                throw new IllegalStateException( "Unsupported policy " + policy );
+        }
+    }
+
+    /**
+     * @return the number of tasks queued or running
+     */
+    public int getSubmitted()
+    {
+        return submitted.get();
+    }
+
+    /**
+     * @return the number of tasks waiting in the queue
+     */
+    public int getQueued()
+    {
+        return getQueue().size();
+    }
+
+    /**
+     * @return the number of tasks dropped, timed out or submitted after shutdown
+     */
+    public long getRejected()
+    {
+        return rejected.sum();
+    }
+
+    /**
+     * @return the number of tasks run on the calling thread with {@link WorkerPool.FullPolicy#CALLER_RUNS}
+     */
+    public long getCallerRuns()
+    {
+        return callerRuns.sum();
+    }
+
+    public WorkerPool.FullPolicy getPolicy()
+    {
+        return policy;
+    }
+
+    /**
+     * Queue which refuses tasks whilst every thread is busy and the pool can add threads, causing
+     * {@link ThreadPoolExecutor} to add a thread rather than queue the task
+     */
+    private static class TaskQueue
+            extends LinkedBlockingQueue<Runnable>
+    {
+
+        private static final long serialVersionUID = 1L;
+
+        private transient volatile BoundedExecutor executor;
+
+        private TaskQueue( int capacity )
+        {
+            super( capacity );
+        }
+
+        @Override
+        public boolean offer( Runnable r )
+        {
+            BoundedExecutor e = executor;
+            if( e != null ) {
+                int poolSize = e.getPoolSize();
+                // Queue if there's an idle thread to take it
+                if( e.submitted.get() <= poolSize ) {
+                    return super.offer( r );
+                }
+                if( poolSize < e.getMaximumPoolSize() ) {
+                    return false;
+                }
+            }
+            return super.offer( r );
+        }
+
+        private boolean force( Runnable r )
+        {
+            return super.offer( r );
+        }
+
+        private boolean force( Runnable r, long timeout, TimeUnit unit )
+                throws InterruptedException
+        {
+            return super.offer( r, timeout, unit );
+        }
+    }
+
+    private static class FullHandler
+            implements RejectedExecutionHandler
+    {
+
+        @Override
+        public void rejectedExecution( Runnable r, ThreadPoolExecutor executor )
+        {
+            ((BoundedExecutor) executor).full( r );
+        }
+    }
+}
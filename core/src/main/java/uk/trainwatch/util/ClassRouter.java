@@ -0,0 +1,190 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * A {@link Router} which routes a payload by it's class.
+ * <p>
+ * A payload whose class has no route of it's own takes the route of it's nearest superclass, then of the first
+ * interface it implements which has a route, and lastly any route for {@link Object}.
+ * <p>
+ * Routes are held in an immutable snapshot which is replaced whenever a route is changed. Each class is resolved once
+ * per snapshot, the result being cached in a {@link ClassValue}, so routing a payload costs a volatile read and a
+ * {@link ClassValue#get(java.lang.Class)}. Consumers added to the same route are held in an array rather than chained
+ * with {@link Consumer#andThen(java.util.function.Consumer)}.
+ * <p>
+ * Unlike the base Router, routes can be changed whilst payloads are being routed from other threads.
+ * <p>
+ * @author peter
+ * @param <T> Payload type
+ * <p>
+ * @see Router#createClassRouter()
+ */
+public class ClassRouter<T>
+        extends Router<Class<?>, T>
+{
+
+    // Guarded by this
+    private final Map<Class<?>, Consumer<T>[]> routes = new HashMap<>();
+
+    private volatile Snapshot<T> snapshot;
+
+    public ClassRouter()
+    {
+        super( t -> t.getClass() );
+        snapshot = new Snapshot<>( routes, getSink() );
+    }
+
+    @Override
+    protected Consumer<T> route( Class<?> key )
+    {
+        return snapshot.get( key );
+    }
+
+    private void update()
+    {
+        snapshot = new Snapshot<>( routes, getSink() );
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized void sink( Class<?> key )
+    {
+        routes.put( key, new Consumer[0] );
+        update();
+    }
+
+    @Override
+    public boolean isSinked( Class<?> key )
+    {
+        Consumer<T>[] a = snapshot.routes.get( key );
+        return a != null && a.length == 0;
+    }
+
+    @Override
+    public boolean isRouted( Class<?> key )
+    {
+        return snapshot.routes.containsKey( key );
+    }
+
+    /**
+     * Add a route to this instance. If a route already exists then the consumer is called after those already present.
+     *
+     * @param key      class to route
+     * @param consumer consumer
+     * <p>
+     * @return this
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized ClassRouter<T> add( Class<?> key, Consumer<T> consumer )
+    {
+        Consumer<T>[] a = routes.get( key );
+        if( a == null ) {
+            a = new Consumer[]{consumer};
+        }
+        else {
+            a = Arrays.copyOf( a, a.length + 1 );
+            a[a.length - 1] = consumer;
+        }
+        routes.put( key, a );
+        update();
+        return this;
+    }
+
+    @Override
+    public synchronized ClassRouter<T> setSink( Consumer<T> sink )
+    {
+        super.setSink( sink );
+        update();
+        return this;
+    }
+
+    /**
+     * An immutable copy of the routes which resolves and caches the consumer for each class
+     *
+     * @param <T> Payload type
+     */
+    private static final class Snapshot<T>
+            extends ClassValue<Consumer<T>>
+    {
+
+        private final Map<Class<?>, Consumer<T>[]> routes;
+        private final Consumer<T> sink;
+
+        private Snapshot( Map<Class<?>, Consumer<T>[]> routes, Consumer<T> sink )
+        {
+            this.routes = new HashMap<>( routes );
+            this.sink = sink;
+        }
+
+        @Override
+        protected Consumer<T> computeValue( Class<?> type )
+        {
+            Consumer<T>[] a = find( type );
+            if( a == null || a.length == 0 ) {
+                return sink;
+            }
+            if( a.length == 1 ) {
+                return a[0];
+            }
+            return v -> {
+                for( Consumer<T> c: a ) {
+                    c.accept( v );
+                }
+            };
+        }
+
+        private Consumer<T>[] find( Class<?> type )
+        {
+            // The class and it's superclasses
+            for( Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass() ) {
+                Consumer<T>[] a = routes.get( c );
+                if( a != null ) {
+                    return a;
+                }
+            }
+
+            // Then interfaces, nearest first
+            Deque<Class<?>> queue = new ArrayDeque<>();
+            Set<Class<?>> seen = new HashSet<>();
+            for( Class<?> c = type; c != null; c = c.getSuperclass() ) {
+                queue.addAll( Arrays.asList( c.getInterfaces() ) );
+            }
+            while( !queue.isEmpty() ) {
+                Class<?> i = queue.removeFirst();
+                if( seen.add( i ) ) {
+                    Consumer<T>[] a = routes.get( i );
+                    if( a != null ) {
+                        return a;
+                    }
+                    queue.addAll( Arrays.asList( i.getInterfaces() ) );
+                }
+            }
+
+            return routes.get( Object.class );
+        }
+    }
+}
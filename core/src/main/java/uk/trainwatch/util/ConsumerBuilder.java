@@ -47,6 +47,22 @@ public class ConsumerBuilder<U>
         return this;
     }
 
+    /**
+     * Add a consumer to the end of the chain, instrumented as a named pipeline stage
+     *
+     * @param name stage name
+     * @param c    consumer
+     *
+     * @return
+     *
+     * @see Consumers#instrument(java.lang.String, java.util.function.Consumer)
+     */
+    public ConsumerBuilder<U> add( String name, Consumer<U> c )
+    {
+        chain.add( Consumers.instrument( name, c ) );
+        return this;
+    }
+
     /**
      * Adds a consumer to the end of the chain
      *
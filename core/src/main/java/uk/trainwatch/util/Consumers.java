@@ -15,9 +15,11 @@
  */
 package uk.trainwatch.util;
 
+import java.time.Duration;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -25,6 +27,7 @@ import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Stream;
+import uk.trainwatch.util.counter.PipelineMonitor;
 import uk.trainwatch.util.sql.SQLConsumer;
 
 /**
@@ -442,6 +445,104 @@ public final class Consumers
         return guard( clazz.getName(), c );
     }
 
+    /**
+     * Wraps a consumer so that it's recorded as a named stage by the {@link PipelineMonitor}, recording the number of
+     * times it's called, the number of times it fails and it's latency.
+     * <p>
+     * Stages using the same name share the same statistics.
+     * <p>
+     * @param <T>  object type
+     * @param name name of the stage
+     * @param c    Consumer to instrument
+     * <p>
+     * @return new Consumer
+     */
+    public static <T> Consumer<T> instrument( String name, Consumer<T> c )
+    {
+        Objects.requireNonNull( c );
+        PipelineMonitor.Stage stage = PipelineMonitor.INSTANCE.getStage( name );
+        return v -> stage.accept( c, v );
+    }
+
+    /**
+     * Creates a consumer which collects values into batches, passing each batch to a sink once it holds maxSize values
+     * or the oldest value in it has waited for maxDelay.
+     * <p>
+     * The returned consumer should be closed when no longer required so that any remaining values are passed to the sink.
+     * <p>
+     * @param <T>      object type
+     * @param maxSize  maximum number of values in a batch
+     * @param maxDelay maximum time a value waits before it's batch is passed to the sink
+     * @param sink     Consumer of each batch
+     * <p>
+     * @return new Consumer
+     */
+    public static <T> BatchingConsumer<T> batch( int maxSize, Duration maxDelay, Consumer<List<T>> sink )
+    {
+        return new BatchingConsumer<>( maxSize, maxDelay, sink );
+    }
+
+    /**
+     * Creates a consumer which collects values into batches, passing each batch to a sink once it holds maxSize values
+     * or the oldest value in it has waited for maxDelay. The size and latency of each batch is reported as label.size and
+     * label.latency.
+     * <p>
+     * @param <T>      object type
+     * @param label    label of the metrics
+     * @param maxSize  maximum number of values in a batch
+     * @param maxDelay maximum time a value waits before it's batch is passed to the sink
+     * @param sink     Consumer of each batch
+     * <p>
+     * @return new Consumer
+     */
+    public static <T> BatchingConsumer<T> batch( String label, int maxSize, Duration maxDelay, Consumer<List<T>> sink )
+    {
+        return new BatchingConsumer<>( label, maxSize, maxDelay, sink );
+    }
+
+    /**
+     * Creates a consumer which spreads values over a number of single threaded lanes chosen by a key, so values with the
+     * same key are processed in order whilst those with different keys are processed in parallel.
+     * <p>
+     * Each lane queues up to {@link PartitionedExecutor#DEFAULT_QUEUE_SIZE} values, blocking for up to 10 seconds when
+     * full.
+     * <p>
+     * @param <T>        object type
+     * @param <K>        key type
+     * @param key        Function returning the key of a value
+     * @param partitions number of lanes
+     * @param c          Consumer
+     * <p>
+     * @return new Consumer
+     */
+    public static <T, K> PartitionedExecutor<T, K> partitioned( Function<T, K> key, int partitions, Consumer<T> c )
+    {
+        return new PartitionedExecutor<>( null, key, partitions, PartitionedExecutor.DEFAULT_QUEUE_SIZE,
+                                          WorkerPool.FullPolicy.BLOCK, 10, TimeUnit.SECONDS, c );
+    }
+
+    /**
+     * Creates a consumer which spreads values over a number of single threaded lanes chosen by a key, so values with the
+     * same key are processed in order whilst those with different keys are processed in parallel. The depth of each lane
+     * is reported as label.laneN.depth.
+     * <p>
+     * @param <T>        object type
+     * @param <K>        key type
+     * @param label      label of the depth metrics
+     * @param key        Function returning the key of a value
+     * @param partitions number of lanes
+     * @param size       queue size of each lane
+     * @param policy     what to do when a lane is full
+     * @param c          Consumer
+     * <p>
+     * @return new Consumer
+     */
+    public static <T, K> PartitionedExecutor<T, K> partitioned( String label, Function<T, K> key, int partitions, int size,
+                                                                WorkerPool.FullPolicy policy, Consumer<T> c )
+    {
+        return new PartitionedExecutor<>( label, key, partitions, size, policy, 10, TimeUnit.SECONDS, c );
+    }
+
     /**
      * Wraps a {@link Consumer} so that it's run within an {@link Executor}.
      * <p>
@@ -457,20 +558,23 @@ public final class Consumers
     }
 
     /**
-     * Wraps a {@link Consumer} so that it's run within the main cached thread pool.
+     * Wraps a {@link Consumer} so that it's run within the main bounded thread pool.
      * <p>
      * Use this for normal use. For intensive work use {@link #forkWorker(java.util.function.Consumer)} instead.
      * <p>
+     * The pool has a limited number of threads and queued values, so under a burst the consumer is run on the calling
+     * thread once both are exhausted.
+     * <p>
      * @param <T> Type of consumed object
      * @param c   Consumer to wrap
      * <p>
      * @return Consumer
      * <p>
-     * @see Executors#newCachedThreadPool()
+     * @see DaemonThreadFactory#getForkExecutor()
      */
     public static <T> Consumer<T> fork( Consumer<T> c )
     {
-        return Consumers.fork( DaemonThreadFactory.INSTANCE.getCachedExecutor(), c );
+        return Consumers.fork( DaemonThreadFactory.INSTANCE.getForkExecutor(), c );
     }
 
     /**
@@ -478,22 +582,24 @@ public final class Consumers
      * number of processors on the system.
      * <p>
      * Use this for intensive work as it will keep CPU load to reasonable amounts as it bases it's thread pool size to
-     * the number of processors on the system.
+     * the number of processors on the system. Once it's queue is full the consumer is run on the calling thread.
      * <p>
      * @param <T> Type of consumed object
      * @param c   Consumer to wrap
      * <p>
      * @return Consumer
      * <p>
-     * @see Executors#newCachedThreadPool()
+     * @see DaemonThreadFactory#getForkWorkerExecutor()
      */
     public static <T> Consumer<T> forkWorker( Consumer<T> c )
     {
-        return Consumers.fork( DaemonThreadFactory.INSTANCE.getWorkExecutor(), c );
+        return Consumers.fork( DaemonThreadFactory.INSTANCE.getForkWorkerExecutor(), c );
     }
 
     /**
      * Wraps a consumer so that it's passed on to an Executor
+     * <p>
+     * To bound the number of threads and queued values use a {@link BoundedExecutor}.
      *
      * @param <T> Type of payload
      * @param e   Executor to use
@@ -5,18 +5,28 @@
  */
 package uk.trainwatch.util;
 
+import java.lang.reflect.Method;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
- * A {@link ThreadFactory} that creates daemon threads. It also maintains our two thread Executors.
+ * A {@link ThreadFactory} that creates daemon threads. It also maintains our thread Executors.
+ * <p>
+ * When run on Java 21 or later with {@code -Duk.trainwatch.threads.virtual=true} then {@link #newThread(Runnable)} and
+ * {@link #getCachedExecutor()} use virtual threads instead, so stages that spend most of their time blocked on I/O cost
+ * very little. The work stealing pool, the bounded fork pools and the scheduler always use platform threads as pooling
+ * virtual threads gains nothing, and a scheduled task blocking a pinned virtual thread would stall every other task. On
+ * earlier JVMs the property is ignored.
  * <p>
  * @author Peter T Mount
  */
@@ -26,25 +36,132 @@ public enum DaemonThreadFactory
 
     INSTANCE;
 
+    /**
+     * System property to enable virtual threads
+     */
+    public static final String VIRTUAL_PROPERTY = "uk.trainwatch.threads.virtual";
+    /**
+     * System property of the maximum number of threads used by {@link #getForkExecutor()}, default 256
+     */
+    public static final String FORK_THREADS_PROPERTY = "uk.trainwatch.fork.maxThreads";
+    /**
+     * System property of the maximum number of tasks queued by {@link #getForkExecutor()} and
+     * {@link #getForkWorkerExecutor()}, default 10000
+     */
+    public static final String FORK_QUEUE_PROPERTY = "uk.trainwatch.fork.queueSize";
+
     private final ThreadGroup group = new ThreadGroup( "Open Data ThreadGroup" );
     /**
      * Our Thread ID counter
      */
     private final AtomicInteger seq = new AtomicInteger();
     /**
-     * Old school cached Thread Pool, use for normal tasks
+     * Factory of virtual threads or null if we are using platform threads
      */
-    private final ExecutorService cachedExecutor = Executors.newCachedThreadPool( this );
+    private final ThreadFactory virtualFactory = Boolean.getBoolean( VIRTUAL_PROPERTY ) ? createVirtualFactory() : null;
+    /**
+     * Old school cached Thread Pool, use for normal tasks. When using virtual threads this creates one per task
+     */
+    private final ExecutorService cachedExecutor = virtualFactory == null
+                                                   ? Executors.newCachedThreadPool( this )
+                                                   : createThreadPerTaskExecutor( virtualFactory );
     /**
      * Work stealing pool which will use all available processors
      */
     private final ExecutorService workExecutor = Executors.newWorkStealingPool();
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool( 4, this );
+    /**
+     * Bounded pool used by {@link Consumers#fork(java.util.function.Consumer)}
+     */
+    private final BoundedExecutor forkExecutor = new BoundedExecutor(
+            Runtime.getRuntime().availableProcessors(),
+            Math.max( Runtime.getRuntime().availableProcessors(), Integer.getInteger( FORK_THREADS_PROPERTY, 256 ) ),
+            Integer.getInteger( FORK_QUEUE_PROPERTY, 10000 ),
+            WorkerPool.FullPolicy.CALLER_RUNS, 0, TimeUnit.SECONDS,
+            this::newPlatformThread );
+    /**
+     * Bounded pool of one thread per processor used by {@link Consumers#forkWorker(java.util.function.Consumer)}
+     */
+    private final BoundedExecutor forkWorkerExecutor = new BoundedExecutor(
+            Runtime.getRuntime().availableProcessors(),
+            Runtime.getRuntime().availableProcessors(),
+            Integer.getInteger( FORK_QUEUE_PROPERTY, 10000 ),
+            WorkerPool.FullPolicy.CALLER_RUNS, 0, TimeUnit.SECONDS,
+            this::newPlatformThread );
+    private final ScheduledExecutorService scheduler = createScheduler( this::newPlatformThread );
+
+    /**
+     * Create the scheduler. Cancelled tasks are removed immediately rather than when they would next have run, so a
+     * cancelled periodic task doesn't keep whatever it references reachable.
+     * <p>
+     * @param factory ThreadFactory
+     * <p>
+     * @return ScheduledExecutorService
+     */
+    private static ScheduledExecutorService createScheduler( ThreadFactory factory )
+    {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor( 4, factory );
+        executor.setRemoveOnCancelPolicy( true );
+        return executor;
+    }
+
+    /**
+     * Create a ThreadFactory for virtual threads. This uses reflection as we still compile against Java 8.
+     * <p>
+     * @return ThreadFactory or null if virtual threads are not supported by this JVM
+     */
+    private static ThreadFactory createVirtualFactory()
+    {
+        try {
+            Class<?> builderClass = Class.forName( "java.lang.Thread$Builder" );
+            Object builder = Thread.class.getMethod( "ofVirtual" ).invoke( null );
+            builder = builderClass.getMethod( "name", String.class, long.class )
+                    .invoke( builder, "Open-Data-VirtualThread-", 1L );
+            return (ThreadFactory) builderClass.getMethod( "factory" ).invoke( builder );
+        }
+        catch( ReflectiveOperationException |
+               RuntimeException ex ) {
+            Logger.getLogger( DaemonThreadFactory.class.getName() )
+                    .log( Level.WARNING, "Virtual threads not available, using platform threads", ex );
+            return null;
+        }
+    }
+
+    /**
+     * Create an ExecutorService which starts a new thread per task.
+     * <p>
+     * @param factory ThreadFactory
+     * <p>
+     * @return ExecutorService
+     */
+    private static ExecutorService createThreadPerTaskExecutor( ThreadFactory factory )
+    {
+        try {
+            Method m = Executors.class.getMethod( "newThreadPerTaskExecutor", ThreadFactory.class );
+            return (ExecutorService) m.invoke( null, factory );
+        }
+        catch( ReflectiveOperationException |
+               RuntimeException ex ) {
+            // Should not happen if we have virtual threads but a cached pool behaves the same way
+            return Executors.newCachedThreadPool( factory );
+        }
+    }
+
+    /**
+     * Are we using virtual threads
+     * <p>
+     * @return true if {@link #newThread(java.lang.Runnable)} and {@link #getCachedExecutor()} use virtual threads
+     */
+    public boolean isVirtual()
+    {
+        return virtualFactory != null;
+    }
 
     public void shutdown()
     {
         cachedExecutor.shutdownNow();
         workExecutor.shutdownNow();
+        forkExecutor.shutdownNow();
+        forkWorkerExecutor.shutdownNow();
         scheduler.shutdownNow();
     }
 
@@ -69,6 +186,29 @@ public enum DaemonThreadFactory
         return workExecutor;
     }
 
+    /**
+     * Returns the bounded Executor used to fork consumers. This grows from one thread per processor up to
+     * {@link #FORK_THREADS_PROPERTY} threads before queueing tasks and, once the queue is full, runs tasks on the
+     * submitting thread so a burst slows the producer down rather than exhausting memory.
+     * <p>
+     * @return
+     */
+    public BoundedExecutor getForkExecutor()
+    {
+        return forkExecutor;
+    }
+
+    /**
+     * Returns the bounded Executor used to fork cpu intensive consumers. This has one thread per processor and, once
+     * it's queue is full, runs tasks on the submitting thread.
+     * <p>
+     * @return
+     */
+    public BoundedExecutor getForkWorkerExecutor()
+    {
+        return forkWorkerExecutor;
+    }
+
     public ScheduledFuture<?> schedule( Runnable command, long delay, TimeUnit unit )
     {
         return scheduler.schedule( command, delay, unit );
@@ -89,8 +229,31 @@ public enum DaemonThreadFactory
         return scheduler.scheduleWithFixedDelay( command, initialDelay, delay, unit );
     }
 
+    /**
+     * Create a new thread, a virtual thread if {@link #isVirtual()} otherwise a platform daemon thread
+     * <p>
+     * @param r Runnable
+     * <p>
+     * @return Thread
+     */
     @Override
     public Thread newThread( Runnable r )
+    {
+        if( virtualFactory != null ) {
+            // Virtual threads are always daemon threads
+            return virtualFactory.newThread( r );
+        }
+        return newPlatformThread( r );
+    }
+
+    /**
+     * Create a new platform daemon thread regardless of {@link #isVirtual()}. Used by our pools and the scheduler.
+     * <p>
+     * @param r Runnable
+     * <p>
+     * @return Thread
+     */
+    public Thread newPlatformThread( Runnable r )
     {
         Thread t = new Thread( group, r, "Open-Data-DaemonThread-" + seq.incrementAndGet() );
         t.setDaemon( true );
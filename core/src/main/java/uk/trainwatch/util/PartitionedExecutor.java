@@ -0,0 +1,233 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import uk.trainwatch.util.counter.Histogram;
+import uk.trainwatch.util.counter.MetricsRegistry;
+
+/**
+ * A {@link Consumer} which spreads values over a number of lanes, each a single background thread with it's own
+ * bounded queue, choosing the lane from a key extracted from the value.
+ * <p>
+ * All values with the same key go to the same lane, so they are processed in the order they were accepted whilst values
+ * with different keys are processed in parallel. For example keying train movements on the train id keeps each train's
+ * movements in order but uses all cores.
+ * <p>
+ * Each lane is a {@link WorkerPool} with one worker so what happens when a lane is full is decided by it's
+ * {@link WorkerPool.FullPolicy}. Note that {@link WorkerPool.FullPolicy#CALLER_RUNS} can run a value ahead of ones
+ * still queued for the same key.
+ * <p>
+ * If created with a label then the depth of each lane's queue is sampled every second into a {@link Histogram} named
+ * label.laneN.depth.
+ * <p>
+ * @author peter
+ * @param <T> Type consumed
+ * @param <K> Type of key
+ * <p>
+ * @see Consumers#partitioned(java.util.function.Function, int, java.util.function.Consumer)
+ */
+public class PartitionedExecutor<T, K>
+        implements Consumer<T>,
+                   AutoCloseable,
+                   MetricsRegistry.Tickable
+{
+
+    /**
+     * Default queue size of each lane
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    private final Function<T, K> key;
+    private final WorkerPool<T>[] lanes;
+    private final Histogram[] depths;
+
+    /**
+     * Create an executor with a lane per available processor, each blocking for up to 10 seconds when full
+     * <p>
+     * @param key Function returning the key of a value
+     * @param c   Consumer
+     */
+    public PartitionedExecutor( Function<T, K> key, Consumer<T> c )
+    {
+        this( null, key, Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_SIZE,
+              WorkerPool.FullPolicy.BLOCK, 10, TimeUnit.SECONDS, c );
+    }
+
+    /**
+     * Create an executor
+     * <p>
+     * @param label      label of the depth metrics, null for none
+     * @param key        Function returning the key of a value
+     * @param partitions number of lanes
+     * @param size       queue size of each lane
+     * @param policy     what to do when a lane is full
+     * @param timeout    timeout when policy is {@link WorkerPool.FullPolicy#BLOCK}
+     * @param unit       TimeUnit of timeout
+     * @param c          Consumer
+     */
+    @SuppressWarnings({"unchecked", "LeakingThisInConstructor"})
+    public PartitionedExecutor( String label, Function<T, K> key, int partitions, int size,
+                                WorkerPool.FullPolicy policy, long timeout, TimeUnit unit, Consumer<T> c )
+    {
+        if( partitions < 1 ) {
+            throw new IllegalArgumentException( "partitions must be at least 1" );
+        }
+        this.key = Objects.requireNonNull( key );
+        Objects.requireNonNull( c );
+
+        lanes = new WorkerPool[partitions];
+        for( int i = 0; i < partitions; i++ ) {
+            lanes[i] = new WorkerPool<>( size, 1, policy, timeout, unit, c );
+        }
+
+        if( label == null ) {
+            depths = null;
+        }
+        else {
+            depths = new Histogram[partitions];
+            for( int i = 0; i < partitions; i++ ) {
+                depths[i] = new Histogram( label + ".lane" + i + ".depth" );
+            }
+            MetricsRegistry.INSTANCE.register( this );
+        }
+    }
+
+    /**
+     * The lane a key is processed in
+     * <p>
+     * @param k key, may be null
+     * <p>
+     * @return lane number
+     */
+    public int getLane( K k )
+    {
+        if( k == null ) {
+            return 0;
+        }
+        // Spread the high bits as poor hashCodes often differ only there
+        int h = k.hashCode();
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % lanes.length;
+    }
+
+    @Override
+    public void accept( T t )
+    {
+        lanes[getLane( key.apply( t ) )].accept( t );
+    }
+
+    @Override
+    public void secondTick()
+    {
+        for( int i = 0; i < lanes.length; i++ ) {
+            depths[i].record( lanes[i].getQueued() );
+        }
+    }
+
+    /**
+     * Stop accepting values, wait for those already queued to be processed and the lanes to exit.
+     */
+    @Override
+    public void close()
+    {
+        for( WorkerPool<T> lane: lanes ) {
+            lane.close();
+        }
+        if( depths != null ) {
+            MetricsRegistry.INSTANCE.deregister( this );
+            for( Histogram h: depths ) {
+                h.cancel();
+            }
+        }
+    }
+
+    public int getPartitions()
+    {
+        return lanes.length;
+    }
+
+    /**
+     * @param lane lane number
+     * <p>
+     * @return the number of values waiting in a lane's queue
+     */
+    public int getDepth( int lane )
+    {
+        return lanes[lane].getQueued();
+    }
+
+    /**
+     * @return the number of values waiting in each lane's queue
+     */
+    public int[] getDepths()
+    {
+        int[] r = new int[lanes.length];
+        for( int i = 0; i < lanes.length; i++ ) {
+            r[i] = lanes[i].getQueued();
+        }
+        return r;
+    }
+
+    /**
+     * @param lane lane number
+     * <p>
+     * @return the sampled depth of a lane's queue, null if created without a label
+     */
+    public Histogram getDepthHistogram( int lane )
+    {
+        return depths == null ? null : depths[lane];
+    }
+
+    /**
+     * @return the number of values passed to the consumer
+     */
+    public long getProcessed()
+    {
+        long n = 0;
+        for( WorkerPool<T> lane: lanes ) {
+            n += lane.getProcessed();
+        }
+        return n;
+    }
+
+    /**
+     * @return the number of values dropped with {@link WorkerPool.FullPolicy#DROP}
+     */
+    public long getDropped()
+    {
+        long n = 0;
+        for( WorkerPool<T> lane: lanes ) {
+            n += lane.getDropped();
+        }
+        return n;
+    }
+
+    /**
+     * @return the number of values run on the calling thread with {@link WorkerPool.FullPolicy#CALLER_RUNS}
+     */
+    public long getCallerRuns()
+    {
+        long n = 0;
+        for( WorkerPool<T> lane: lanes ) {
+            n += lane.getCallerRuns();
+        }
+        return n;
+    }
+}
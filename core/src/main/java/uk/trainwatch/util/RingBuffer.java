@@ -0,0 +1,399 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * A bounded, lock free hand off between threads, used in place of {@link BlockingSupplierConsumer} to feed a
+ * {@link java.util.stream.Stream} running in one thread from another.
+ * <p>
+ * Values are held in a pre-allocated ring, each slot having a sequence number saying whether it's ready to be written
+ * or read, so unlike a {@link java.util.concurrent.LinkedBlockingQueue} nothing is allocated per value and neither end
+ * takes a lock. With {@link ProducerType#SINGLE} only one thread may call {@link #accept(java.lang.Object)}, which
+ * avoids a compare and set per value; {@link ProducerType#MULTI} allows any number. Any number of threads may call
+ * {@link #get()}.
+ * <p>
+ * When the ring is full a producer waits, as does a consumer when it's empty, using a {@link WaitStrategy}. With
+ * {@link WaitStrategy#PARK} a parked thread is woken as soon as there's something for it to do.
+ * <p>
+ * @author peter
+ * @param <T> Type of object to pass
+ * <p>
+ * @see Streams#consumerStream(java.util.function.Consumer)
+ */
+public class RingBuffer<T>
+        implements BlockingSupplier<T>,
+                   Consumer<T>
+{
+
+    /**
+     * Whether one or many threads will be adding values
+     */
+    public static enum ProducerType
+    {
+
+        SINGLE,
+        MULTI
+    }
+
+    /**
+     * How a thread waits for space or a value
+     */
+    public static enum WaitStrategy
+    {
+
+        /**
+         * Spin without giving up the cpu. Lowest latency but keeps a core busy whilst waiting so only use with a
+         * dedicated core
+         */
+        BUSY_SPIN
+        {
+            @Override
+            int idle( int count )
+            {
+                return count + 1;
+            }
+        },
+        /**
+         * Spin briefly then yield the cpu to other threads between checks
+         */
+        YIELD
+        {
+            @Override
+            int idle( int count )
+            {
+                if( count >= SPIN_TRIES ) {
+                    Thread.yield();
+                }
+                return count + 1;
+            }
+        },
+        /**
+         * Spin, then yield, then park. A parked consumer is woken by the next value added and a parked producer by the
+         * next value removed. The park is also timed, for increasing periods up to about 130ms, as a safety net, so an
+         * idle thread wakes only a few times a second and uses almost no cpu
+         */
+        PARK
+        {
+            @Override
+            int idle( int count )
+            {
+                if( count < SPIN_TRIES ) {
+                    // spin
+                }
+                else if( count < SPIN_TRIES + YIELD_TRIES ) {
+                    Thread.yield();
+                }
+                else {
+                    int n = Math.min( count - SPIN_TRIES - YIELD_TRIES, MAX_PARK_SHIFT );
+                    LockSupport.parkNanos( 1000L << n );
+                }
+                return count + 1;
+            }
+        };
+
+        private static final int SPIN_TRIES = 100;
+        private static final int YIELD_TRIES = 100;
+        /**
+         * Longest park is 1us &lt;&lt; 17, about 130ms
+         */
+        private static final int MAX_PARK_SHIFT = 17;
+
+        /**
+         * Will the next call to {@link #idle(int)} park the thread
+         * <p>
+         * @param count number of times we have waited so far
+         * <p>
+         * @return true if it will park
+         */
+        boolean parks( int count )
+        {
+            return this == PARK && count >= SPIN_TRIES + YIELD_TRIES;
+        }
+
+        /**
+         * Wait once
+         * <p>
+         * @param count number of times we have waited so far
+         * <p>
+         * @return new count
+         */
+        abstract int idle( int count );
+    }
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<T> values;
+    /**
+     * For each slot the sequence it's waiting for. A producer can write to it when this equals it's position, a consumer
+     * read when it equals position + 1.
+     */
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final ProducerType producerType;
+    private final WaitStrategy waitStrategy;
+    private volatile boolean valid = true;
+    /**
+     * Threads parked waiting for a value or for space, null unless the wait strategy is {@link WaitStrategy#PARK}
+     */
+    private final Queue<Thread> waitingConsumers;
+    private final Queue<Thread> waitingProducers;
+
+    /**
+     * A multi producer ring buffer of 1024 entries which parks when idle
+     */
+    public RingBuffer()
+    {
+        this( 1024 );
+    }
+
+    /**
+     * A multi producer ring buffer which parks when idle
+     * <p>
+     * @param capacity capacity, rounded up to a power of 2 of at least 2
+     */
+    public RingBuffer( int capacity )
+    {
+        this( capacity, ProducerType.MULTI, WaitStrategy.PARK );
+    }
+
+    /**
+     * Create a ring buffer
+     * <p>
+     * @param capacity     capacity, rounded up to a power of 2 of at least 2
+     * @param producerType Whether one or many threads will add values
+     * @param waitStrategy How to wait for space or a value
+     */
+    public RingBuffer( int capacity, ProducerType producerType, WaitStrategy waitStrategy )
+    {
+        if( capacity < 1 || capacity > 1 << 30 ) {
+            throw new IllegalArgumentException( "Capacity must be between 1 and 2^30" );
+        }
+        // A slot's sequence once written, pos + 1, must differ from when it's next free, pos + capacity, so at least 2
+        this.capacity = capacity <= 2 ? 2 : Integer.highestOneBit( capacity - 1 ) << 1;
+        this.mask = this.capacity - 1;
+        this.producerType = Objects.requireNonNull( producerType );
+        this.waitStrategy = Objects.requireNonNull( waitStrategy );
+        values = new AtomicReferenceArray<>( this.capacity );
+        sequences = new AtomicLongArray( this.capacity );
+        for( int i = 0; i < this.capacity; i++ ) {
+            sequences.set( i, i );
+        }
+        waitingConsumers = waitStrategy == WaitStrategy.PARK ? new ConcurrentLinkedQueue<>() : null;
+        waitingProducers = waitStrategy == WaitStrategy.PARK ? new ConcurrentLinkedQueue<>() : null;
+    }
+
+    public boolean isValid()
+    {
+        return valid;
+    }
+
+    @Override
+    public void setInvalid()
+    {
+        valid = false;
+        // Wake parked producers so they see we are no longer valid
+        wake( waitingProducers );
+    }
+
+    /**
+     * Wake any threads parked in a queue
+     */
+    private static void wake( Queue<Thread> waiting )
+    {
+        if( waiting != null && !waiting.isEmpty() ) {
+            waiting.forEach( LockSupport::unpark );
+        }
+    }
+
+    private void assertValid()
+    {
+        if( !valid ) {
+            throw new IllegalStateException( "Backing stream has shutdown" );
+        }
+    }
+
+    /**
+     * Add a value, waiting if the ring is full
+     * <p>
+     * @param t value, must not be null
+     * <p>
+     * @throws IllegalStateException if the ring is invalidated or the thread interrupted whilst waiting
+     */
+    @Override
+    public void accept( T t )
+    {
+        Objects.requireNonNull( t );
+        assertValid();
+
+        int count = 0;
+        while( !offer( t ) ) {
+            if( waitStrategy.parks( count ) ) {
+                Thread self = Thread.currentThread();
+                waitingProducers.add( self );
+                try {
+                    // Check again now we're visible to consumers so space freed in between isn't missed
+                    if( offer( t ) ) {
+                        return;
+                    }
+                    count = waitStrategy.idle( count );
+                }
+                finally {
+                    waitingProducers.remove( self );
+                }
+            }
+            else {
+                count = waitStrategy.idle( count );
+            }
+            if( !valid ) {
+                throw new IllegalStateException( "Backing stream has shutdown" );
+            }
+            if( Thread.currentThread().isInterrupted() ) {
+                throw new IllegalStateException( "Interrupted whilst waiting to add " + t );
+            }
+        }
+    }
+
+    /**
+     * Add a value if there's space
+     * <p>
+     * @param t value, must not be null
+     * <p>
+     * @return true if added, false if the ring is full
+     */
+    public boolean offer( T t )
+    {
+        Objects.requireNonNull( t );
+        while( true ) {
+            long pos = tail.get();
+            int i = (int) pos & mask;
+            long diff = sequences.get( i ) - pos;
+            if( diff < 0 ) {
+                // Slot not yet read so we are full
+                return false;
+            }
+            if( diff == 0 ) {
+                if( producerType == ProducerType.SINGLE ) {
+                    tail.lazySet( pos + 1 );
+                }
+                else if( !tail.compareAndSet( pos, pos + 1 ) ) {
+                    continue;
+                }
+                values.lazySet( i, t );
+                sequences.set( i, pos + 1 );
+                wake( waitingConsumers );
+                return true;
+            }
+            // Another producer has claimed this position, try again
+        }
+    }
+
+    /**
+     * Remove a value if one is available
+     * <p>
+     * @return value or null if the ring is empty
+     */
+    @Override
+    public T poll()
+    {
+        while( true ) {
+            long pos = head.get();
+            int i = (int) pos & mask;
+            long diff = sequences.get( i ) - (pos + 1);
+            if( diff < 0 ) {
+                return null;
+            }
+            if( diff == 0 ) {
+                if( !head.compareAndSet( pos, pos + 1 ) ) {
+                    continue;
+                }
+                T t = values.get( i );
+                values.lazySet( i, null );
+                sequences.set( i, pos + capacity );
+                wake( waitingProducers );
+                return t;
+            }
+        }
+    }
+
+    /**
+     * Remove a value, waiting until one is available
+     * <p>
+     * @return value
+     * <p>
+     * @throws IllegalStateException if the thread is interrupted whilst waiting
+     */
+    @Override
+    public T get()
+    {
+        assertValid();
+
+        int count = 0;
+        T t;
+        while( (t = poll()) == null ) {
+            if( waitStrategy.parks( count ) ) {
+                Thread self = Thread.currentThread();
+                waitingConsumers.add( self );
+                try {
+                    // Check again now we're visible to producers so a value added in between isn't missed
+                    if( (t = poll()) != null ) {
+                        return t;
+                    }
+                    count = waitStrategy.idle( count );
+                }
+                finally {
+                    waitingConsumers.remove( self );
+                }
+            }
+            else {
+                count = waitStrategy.idle( count );
+            }
+            if( Thread.currentThread().isInterrupted() ) {
+                throw new IllegalStateException( "Interrupted whilst waiting" );
+            }
+        }
+        return t;
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * @return approximate number of values in the ring
+     */
+    public int size()
+    {
+        long h = head.get();
+        long t = tail.get();
+        return (int) Math.max( 0L, Math.min( capacity, t - h ) );
+    }
+
+    public boolean isEmpty()
+    {
+        return size() == 0;
+    }
+}
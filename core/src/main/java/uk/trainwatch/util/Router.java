@@ -32,15 +32,17 @@ public class Router<K, T>
     private BiConsumer<K, K> keyChangeConsumer;
 
     /**
-     * Create a Router which will route buy the payload's class
+     * Create a Router which will route by the payload's class, including it's superclasses and interfaces
      *
      * @param <T> Payload type
      * <p>
      * @return Router
+     * <p>
+     * @see ClassRouter
      */
-    public static <T> Router<Class<?>, T> createClassRouter()
+    public static <T> ClassRouter<T> createClassRouter()
     {
-        return new Router<>( t -> t.getClass() );
+        return new ClassRouter<>();
     }
 
     /**
@@ -66,15 +68,31 @@ public class Router<K, T>
                 lastKey = key;
             }
 
-            consumers.getOrDefault( key, sink )
-                    .accept( t );
+            route( key ).accept( t );
         }
     }
 
     @Override
     public Consumer<T> apply( T t )
     {
-        return consumers.getOrDefault( router.apply( t ), sink );
+        return route( router.apply( t ) );
+    }
+
+    /**
+     * The consumer for a routing key
+     *
+     * @param key routing key
+     * <p>
+     * @return consumer, the sink if the key is not routed
+     */
+    protected Consumer<T> route( K key )
+    {
+        return consumers.getOrDefault( key, sink );
+    }
+
+    protected Consumer<T> getSink()
+    {
+        return sink;
     }
 
     public void sink( K key )
@@ -10,9 +10,6 @@ import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.Objects;
 import java.util.Spliterators;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
@@ -138,7 +135,8 @@ public class Streams
      * The factory consumer will handle the configuration and operation of the stream. This is called once from a
      * background thread, the passed stream being fed by the final consumer.
      * <p>
-     * The returned Consumer will then offer the object to the stream by means of a backing queue.
+     * The returned Consumer will then offer the object to the stream by means of a backing {@link RingBuffer} of 1024
+     * entries, blocking when it's full.
      * <p>
      * Note: This stream is infinite so you cannot do most operations. Ones that are safe are:
      * <p>
@@ -164,7 +162,7 @@ public class Streams
      */
     public static <T> Consumer<T> consumerStream( Consumer<Stream<T>> factory )
     {
-        return consumerStream( new BlockingSupplierConsumer<>(), factory );
+        return consumerStream( new RingBuffer<>(), factory );
     }
 
     /**
@@ -193,17 +191,17 @@ public class Streams
      * that of the flattened stream so will be safe to use any method.
      * <p>
      * @param <T>     Type of the stream
-     * @param maxSize The maximum size of the backing queue
+     * @param maxSize The maximum size of the backing queue, rounded up to a power of 2
      * @param factory Consumer that will configure and run the stream
      * <p>
      * @return Consumer
      */
     public static <T> Consumer<T> consumerStream( int maxSize, Consumer<Stream<T>> factory )
     {
-        return consumerStream( new BlockingSupplierConsumer<>( maxSize ), factory );
+        return consumerStream( new RingBuffer<>( maxSize ), factory );
     }
 
-    private static <T> Consumer<T> consumerStream( final BlockingSupplierConsumer<T> supplier, Consumer<Stream<T>> factory )
+    private static <T> Consumer<T> consumerStream( final RingBuffer<T> supplier, Consumer<Stream<T>> factory )
     {
         supplierStream( supplier, factory );
 
@@ -236,15 +234,20 @@ public class Streams
      * Once you have done that, this stream then returns to get the next element and the stream you are working on is
      * that of the flattened stream so will be safe to use any method.
      * <p>
+     * If the stream is made parallel then the values are processed by every thread of the common fork join pool, each
+     * taking values from the supplier as they arrive.
+     * <p>
      * @param <T>      Type of the stream
      * @param supplier Supplier that will provide
      * @param factory  Consumer that will configure and run the stream
+     * <p>
+     * @see BlockingSupplierSpliterator
      */
     public static <T> void supplierStream( BlockingSupplier<T> supplier, Consumer<Stream<T>> factory )
     {
         DaemonThreadFactory.INSTANCE.newThread(
                 () -> {
-                    try( Stream<T> s = Stream.generate( supplier ) ) {
+                    try( Stream<T> s = StreamSupport.stream( new BlockingSupplierSpliterator<>( supplier ), false ) ) {
                         factory.accept( s );
                     }
                     finally {
@@ -346,6 +349,9 @@ public class Streams
      * <p>
      * The resulting consumer will block for timeout/unit amount of time if the underlying queue is full - i.e. when the wrapped consumer is busy.
      * <p>
+     * When parallel is true then one worker thread is used per available processor, otherwise a single worker is used
+     * so values are consumed in the order they were accepted.
+     * <p>
      * If a timeout occurs then an {@link IllegalStateException} is thrown to the caller.
      * <p>
      * @param <T>      Type
@@ -359,23 +365,30 @@ public class Streams
      */
     public static <T> Consumer<T> fork( int size, boolean parallel, long timeout, TimeUnit unit, Consumer<T> c )
     {
-        // Guard otherwise the stream fails and the origin will block until queue fills & times out
-        Consumer<T> consumer = Consumers.guard( c );
-
-        BlockingQueue<T> queue = size > 1 ? new ArrayBlockingQueue<>( size ) : new SynchronousQueue<>();
-
-        supplierStream( queue::poll, parallel ? s -> s.parallel().forEach( consumer ) : s -> s.forEach( consumer ) );
+        return new WorkerPool<>( size,
+                                 parallel ? Runtime.getRuntime().availableProcessors() : 1,
+                                 WorkerPool.FullPolicy.BLOCK,
+                                 timeout, unit,
+                                 c );
+    }
 
-        return t -> {
-            try {
-                if( !queue.offer( t, timeout, unit ) ) {
-                    throw new IllegalStateException( "Unable to offer entry after " + timeout + " " + unit );
-                }
-            }
-            catch( InterruptedException ex ) {
-                throw new IllegalStateException( "Offer interrupted", ex );
-            }
-        };
+    /**
+     * Creates a consumer which will hand off work to another consumer on a number of background threads.
+     * <p>
+     * The returned {@link WorkerPool} should be closed when no longer required.
+     * <p>
+     * @param <T>     Type
+     * @param size    Queue size
+     * @param workers Number of worker threads
+     * @param policy  What to do when the queue is full. {@link WorkerPool.FullPolicy#BLOCK} will wait for up to 10
+     *                seconds
+     * @param c       Consumer
+     * <p>
+     * @return new consumer
+     */
+    public static <T> WorkerPool<T> fork( int size, int workers, WorkerPool.FullPolicy policy, Consumer<T> c )
+    {
+        return new WorkerPool<>( size, workers, policy, 10, TimeUnit.SECONDS, c );
     }
 
     public static <E> Stream<E> of( Enumeration<E> en )
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@link Consumer} which hands off values to another consumer running on a fixed number of background worker threads
+ * via a bounded queue.
+ * <p>
+ * Idle workers block on the queue rather than polling it, and once woken take up to a batch of values from it in one
+ * go, limited to their share of the queue when there's more than one worker. When the queue is full what happens to a value is decided by the {@link FullPolicy}.
+ * <p>
+ * The wrapped consumer is guarded so an exception thrown by it is logged and doesn't stop a worker.
+ * <p>
+ * {@link #close()} stops the pool accepting values, lets the workers finish what's already queued and then waits for
+ * them to exit. An idle worker wakes once a second to check whether the pool has been closed.
+ * <p>
+ * @author peter
+ * @param <T> Type consumed
+ * <p>
+ * @see Streams#fork(int, int, uk.trainwatch.util.WorkerPool.FullPolicy, java.util.function.Consumer)
+ */
+public class WorkerPool<T>
+        implements Consumer<T>,
+                   AutoCloseable
+{
+
+    private static final Logger LOG = Logger.getLogger( WorkerPool.class.getName() );
+
+    /**
+     * Maximum number of values a worker takes from the queue at a time
+     */
+    private static final int BATCH_SIZE = 64;
+
+    /**
+     * Offered to the queue once per worker on close to wake an idle worker
+     */
+    private static final Object POISON = new Object();
+
+    /**
+     * How often an idle worker checks if the pool has been closed, in case it missed the poison
+     */
+    private static final long IDLE_CHECK = 1L;
+
+    /**
+     * How long close waits to hand the poison to each worker
+     */
+    private static final long POISON_TIMEOUT = 100L;
+
+    /**
+     * What to do with a value when the queue is full
+     */
+    public static enum FullPolicy
+    {
+
+        /**
+         * Block until there's space, throwing {@link IllegalStateException} if there's still none after the timeout
+         */
+        BLOCK,
+        /**
+         * Drop the value
+         */
+        DROP,
+        /**
+         * Run the consumer on the calling thread
+         */
+        CALLER_RUNS
+    }
+
+    private final BlockingQueue<Object> queue;
+    private final Consumer<T> consumer;
+    private final FullPolicy policy;
+    private final long timeout;
+    private final TimeUnit unit;
+    private final Thread[] workers;
+    private volatile boolean closed;
+
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder callerRuns = new LongAdder();
+
+    /**
+     * Create a pool which blocks for up to 10 seconds when full
+     * <p>
+     * @param size    Queue size, 1 or less for a direct hand off to a waiting worker
+     * @param workers number of worker threads
+     * @param c       Consumer
+     */
+    public WorkerPool( int size, int workers, Consumer<T> c )
+    {
+        this( size, workers, FullPolicy.BLOCK, 10, TimeUnit.SECONDS, c );
+    }
+
+    /**
+     * Create a pool
+     * <p>
+     * @param size    Queue size, 1 or less for a direct hand off to a waiting worker
+     * @param workers number of worker threads
+     * @param policy  what to do when the queue is full
+     * @param timeout timeout when policy is {@link FullPolicy#BLOCK}
+     * @param unit    TimeUnit of timeout
+     * @param c       Consumer
+     */
+    public WorkerPool( int size, int workers, FullPolicy policy, long timeout, TimeUnit unit, Consumer<T> c )
+    {
+        if( workers < 1 ) {
+            throw new IllegalArgumentException( "workers must be at least 1" );
+        }
+        this.policy = Objects.requireNonNull( policy );
+        this.timeout = timeout;
+        this.unit = Objects.requireNonNull( unit );
+        // Guard otherwise a worker dies and the origin will block until the queue fills
+        this.consumer = Consumers.guard( c );
+
+        queue = size > 1 ? new ArrayBlockingQueue<>( size ) : new SynchronousQueue<>();
+
+        this.workers = new Thread[workers];
+        for( int i = 0; i < workers; i++ ) {
+            Thread t = DaemonThreadFactory.INSTANCE.newThread( this::work );
+            this.workers[i] = t;
+            t.start();
+        }
+    }
+
+    @Override
+    public void accept( T t )
+    {
+        if( closed ) {
+            throw new IllegalStateException( "WorkerPool has been closed" );
+        }
+
+        if( queue.offer( t ) ) {
+            return;
+        }
+
+        switch( policy ) {
+            case BLOCK:
+                try {
+                    if( !queue.offer( t, timeout, unit ) ) {
+                        throw new IllegalStateException( "Unable to offer entry after " + timeout + " " + unit );
+                    }
+                }
+                catch( InterruptedException ex ) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException( "Offer interrupted", ex );
+                }
+                break;
+
+            case DROP:
+                dropped.increment();
+                break;
+
+            case CALLER_RUNS:
+                callerRuns.increment();
+                run( t );
+                break;
+
+            default:
+                throw new IllegalStateException( "Unsupported policy " + policy );
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void run( Object o )
+    {
+        consumer.accept( (T) o );
+        processed.increment();
+    }
+
+    /**
+     * A worker exits once it takes the poison or, once closed, it finds the queue empty.
+     * <p>
+     * Nothing is ever put back on the queue as with a {@link SynchronousQueue}, or a full queue, there may be no worker
+     * left to take it. Instead values taken with the poison are run before exiting and anything still queued is run by
+     * {@link #close()} once all the workers have exited.
+     */
+    private void work()
+    {
+        List<Object> batch = new ArrayList<>( BATCH_SIZE );
+        try {
+            while( true ) {
+                Object first = queue.poll( IDLE_CHECK, TimeUnit.SECONDS );
+                if( first == null ) {
+                    if( closed ) {
+                        return;
+                    }
+                    continue;
+                }
+                batch.add( first );
+
+                // Take no more than our share so other workers aren't left idle whilst we hold a backlog
+                int share = workers.length == 1 ? BATCH_SIZE - 1 : Math.min( BATCH_SIZE - 1, queue.size() / workers.length );
+                if( share > 0 ) {
+                    queue.drainTo( batch, share );
+                }
+
+                boolean poisoned = false;
+                for( Object o: batch ) {
+                    if( o == POISON ) {
+                        poisoned = true;
+                    }
+                    else {
+                        run( o );
+                    }
+                }
+                batch.clear();
+
+                if( poisoned ) {
+                    return;
+                }
+            }
+        }
+        catch( InterruptedException ex ) {
+            LOG.log( Level.WARNING, "WorkerPool worker interrupted" );
+        }
+    }
+
+    /**
+     * Stop accepting values, wait for those already queued to be processed and the workers to exit.
+     * <p>
+     * Any value accepted whilst closing after the workers have exited is run on the calling thread.
+     * <p>
+     * A worker that's busy when the pool is closed may miss it's poison, in which case it exits the next time it finds
+     * the queue empty, within a second.
+     */
+    @Override
+    public synchronized void close()
+    {
+        if( closed ) {
+            return;
+        }
+        closed = true;
+
+        boolean interrupted = false;
+        for( int i = 0; i < workers.length && !interrupted; i++ ) {
+            try {
+                // Don't block, if there's no space or no idle worker to take it then the worker will see closed instead
+                queue.offer( POISON, POISON_TIMEOUT, TimeUnit.MILLISECONDS );
+            }
+            catch( InterruptedException ex ) {
+                interrupted = true;
+            }
+        }
+        for( Thread worker: workers ) {
+            try {
+                worker.join();
+            }
+            catch( InterruptedException ex ) {
+                interrupted = true;
+            }
+        }
+
+        // A value offered concurrently with close could be behind the poison
+        Object o;
+        while( (o = queue.poll()) != null ) {
+            if( o != POISON ) {
+                run( o );
+            }
+        }
+
+        if( interrupted ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    /**
+     * @return the number of values waiting in the queue
+     */
+    public int getQueued()
+    {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of values passed to the consumer
+     */
+    public long getProcessed()
+    {
+        return processed.sum();
+    }
+
+    /**
+     * @return the number of values dropped with {@link FullPolicy#DROP}
+     */
+    public long getDropped()
+    {
+        return dropped.sum();
+    }
+
+    /**
+     * @return the number of values run on the calling thread with {@link FullPolicy#CALLER_RUNS}
+     */
+    public long getCallerRuns()
+    {
+        return callerRuns.sum();
+    }
+
+    public int getWorkerCount()
+    {
+        return workers.length;
+    }
+}
@@ -17,27 +17,42 @@ package uk.trainwatch.util.counter;
 
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
-import java.util.Deque;
-import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.function.BinaryOperator;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.IntSupplier;
 import javax.json.Json;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObjectBuilder;
 import uk.trainwatch.util.TimeUtils;
 
 /**
- *
+ * A fixed size history of int values, the oldest being dropped once full.
+ * <p>
+ * Values are held in an int ring buffer so adding one is O(1). The sum of the values along with the min and max are
+ * maintained as values are added, the min and max using monotonic queues of positions within the ring, so none of them
+ * require iterating over the history.
+ * <p>
  * @author peter
  */
 public final class BoundedDeque implements Consumer<Integer>
 {
     private final int maxSize;
-    private final Deque<Integer> deque;
+    private final int[] values;
+    /**
+     * Number of values ever added, the next value goes into values[count % maxSize]
+     */
+    private long count;
+    /**
+     * Positions of candidate minimum/maximum values, values increasing/decreasing from head to tail
+     */
+    private final MonotonicQueue minQueue;
+    private final MonotonicQueue maxQueue;
+    private long sum;
     private LocalDateTime lastTime;
     private int lowAlarm = 0;
     private int highAlarm = Integer.MAX_VALUE;
+    private IntSupplier alarmSource;
     private int lastValue;
     private int total;
     private final Function<BoundedDeque, Integer> aggregator;
@@ -50,29 +65,64 @@ public final class BoundedDeque implements Consumer<Integer>
 
     public BoundedDeque( int maxSize, Function<BoundedDeque, Integer> aggregator )
     {
+        if( maxSize < 1 ) {
+            throw new IllegalArgumentException( "maxSize must be at least 1" );
+        }
         this.maxSize = maxSize;
         this.aggregator = aggregator;
-        this.deque = new ConcurrentLinkedDeque<>();
+        this.values = new int[maxSize];
+        minQueue = new MonotonicQueue( true );
+        maxQueue = new MonotonicQueue( false );
         // Ensures we have some data
         accept( 0 );
-    } // Ensures we have some data
+    }
 
     @Override
-    public synchronized void accept( Integer t )
+    public void accept( Integer t )
+    {
+        accept( t.intValue() );
+    }
+
+    public synchronized void accept( int t )
     {
         lastTime = TimeUtils.getLocalDateTime();
         lastValue = t;
         total += t;
-        deque.offerLast( t );
-        while( deque.size() > maxSize ) {
-            deque.pollFirst();
+
+        int i = (int) (count % maxSize);
+        if( count >= maxSize ) {
+            sum -= values[i];
         }
+        values[i] = t;
+        sum += t;
+
+        minQueue.add( count, t );
+        maxQueue.add( count, t );
+        count++;
+    }
+
+    /**
+     * The number of values held
+     * <p>
+     * @return size
+     */
+    public synchronized int size()
+    {
+        return (int) Math.min( count, maxSize );
     }
 
-    public JsonArrayBuilder toArray()
+    private int oldest()
+    {
+        return (int) ((count - size()) % maxSize);
+    }
+
+    public synchronized JsonArrayBuilder toArray()
     {
         JsonArrayBuilder a = Json.createArrayBuilder();
-        deque.forEach( a::add );
+        int n = size();
+        for( int i = 0, j = oldest(); i < n; i++, j = (j + 1) % maxSize ) {
+            a.add( values[j] );
+        }
         return a;
     }
 
@@ -117,14 +167,34 @@ public final class BoundedDeque implements Consumer<Integer>
         this.lowAlarm = lowAlarm;
     }
 
+    /**
+     * Set where the value compared against the alarms comes from, for example a smoothed rate from a {@link Meter}.
+     * <p>
+     * @param alarmSource source of the value, null to use the last value
+     */
+    public synchronized void setAlarmSource( IntSupplier alarmSource )
+    {
+        this.alarmSource = alarmSource;
+    }
+
+    /**
+     * The value compared against the alarms, by default the last value
+     * <p>
+     * @return value
+     */
+    public synchronized int getAlarmValue()
+    {
+        return alarmSource == null ? lastValue : alarmSource.getAsInt();
+    }
+
     public synchronized boolean isLow()
     {
-        return lastValue < lowAlarm;
+        return getAlarmValue() < lowAlarm;
     }
 
     public synchronized boolean isHigh()
     {
-        return lastValue > highAlarm;
+        return getAlarmValue() > highAlarm;
     }
 
     public synchronized int getLastValue()
@@ -132,9 +202,56 @@ public final class BoundedDeque implements Consumer<Integer>
         return lastValue;
     }
 
-    public int get( BinaryOperator<Integer> f )
+    /**
+     * The sum of the values held
+     * <p>
+     * @return sum
+     */
+    public synchronized long getSum()
+    {
+        return sum;
+    }
+
+    /**
+     * The smallest value held
+     * <p>
+     * @return min
+     */
+    public synchronized int getMin()
+    {
+        return minQueue.head();
+    }
+
+    /**
+     * The largest value held
+     * <p>
+     * @return max
+     */
+    public synchronized int getMax()
     {
-        return deque.stream().reduce( f ).orElse( 0 );
+        return maxQueue.head();
+    }
+
+    /**
+     * Reduce the values held with a function.
+     * <p>
+     * For min, max or sum use {@link #getMin()}, {@link #getMax()} or {@link #getSum()} which don't need to iterate over the
+     * values.
+     * <p>
+     * @param f reduction function
+     * <p>
+     * @return result
+     */
+    public synchronized int get( BinaryOperator<Integer> f )
+    {
+        int n = size();
+        int j = oldest();
+        Integer r = values[j];
+        for( int i = 1; i < n; i++ ) {
+            j = (j + 1) % maxSize;
+            r = f.apply( r, values[j] );
+        }
+        return r;
     }
 
     public synchronized JsonObjectBuilder toJsonObjectBuilder()
@@ -142,10 +259,57 @@ public final class BoundedDeque implements Consumer<Integer>
         return Json.createObjectBuilder().add( "time", lastTime.toString() ).add( "millis", lastTime.toInstant( ZoneOffset.UTC ).toEpochMilli() ).
                 add( "low", isLow() ).add( "high", isHigh() ).add( "lowValue", getLowAlarm() ).add( "highvalue", getHighAlarm() ).add( "values", toArray() ).
                 add( "current", getLastValue() ).
-                add( "min",
-                     get( Math::min ) ).
-                add( "max",
-                     get( Math::max ) );
+                add( "min", getMin() ).
+                add( "max", getMax() );
+    }
+
+    /**
+     * A queue of positions within the ring whose values are monotonically increasing (for min) or decreasing (for max).
+     * <p>
+     * The head is always the min/max of the values held. Each position is added and removed at most once so maintaining
+     * it is amortised O(1) per value.
+     */
+    private final class MonotonicQueue
+    {
+
+        private final boolean min;
+        private final long[] positions = new long[maxSize];
+        private int head;
+        private int size;
+
+        MonotonicQueue( boolean min )
+        {
+            this.min = min;
+        }
+
+        void add( long position, int value )
+        {
+            // Drop the head if it's now fallen out of the ring
+            if( size > 0 && positions[head] <= position - maxSize ) {
+                head = (head + 1) % maxSize;
+                size--;
+            }
+
+            // Drop any values from the tail that can no longer be the min/max
+            while( size > 0 ) {
+                int tail = (head + size - 1) % maxSize;
+                int v = values[(int) (positions[tail] % maxSize)];
+                if( min ? v >= value : v <= value ) {
+                    size--;
+                }
+                else {
+                    break;
+                }
+            }
+
+            positions[(head + size) % maxSize] = position;
+            size++;
+        }
+
+        int head()
+        {
+            return values[(int) (positions[head] % maxSize)];
+        }
     }
-    
+
 }
@@ -0,0 +1,430 @@
+/*
+ * Copyright 2015 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.counter;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * A high dynamic range histogram, typically used for recording latencies.
+ * <p>
+ * Values are held in log-linear buckets: each power of 2 is split into a fixed number of linear sub buckets so the
+ * relative error of any value is bounded, by default about 3%, whether it's a few nanoseconds or many seconds.
+ * <p>
+ * Each thread records into it's own bucket array so recording never blocks or contends with another thread. When the
+ * histogram is read each thread's array is swapped for an empty one, the reader waiting only for any record already in
+ * progress against the old array to finish. Each {@link #snapshot()} therefore returns the values recorded since the
+ * previous one, whilst {@link #getTotal()} returns everything recorded.
+ * <p>
+ * If created with a label the histogram is registered with the {@link MetricsRegistry} and once a minute the 50th, 99th
+ * and 99.9th percentiles of that minute are passed to {@link RateStatistics} as label.p50, label.p99 and label.p999.
+ * <p>
+ * @author peter
+ */
+public class Histogram
+        implements MetricsRegistry.Tickable
+{
+
+    /**
+     * Default number of bits of sub bucket, 5 gives 32 sub buckets per power of 2
+     */
+    public static final int DEFAULT_SUB_BUCKET_BITS = 5;
+
+    private final int subBucketBits;
+    private final int bucketCount;
+    private final String label;
+    private final List<Recorder> recorders = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Recorder> recorder = ThreadLocal.withInitial( this::newRecorder );
+    private final Snapshot empty;
+    private Snapshot total;
+    private Snapshot interval;
+    private volatile Snapshot lastMinute;
+
+    public Histogram()
+    {
+        this( null, DEFAULT_SUB_BUCKET_BITS );
+    }
+
+    /**
+     * A histogram reporting to {@link RateStatistics} every minute
+     * <p>
+     * @param label label of the statistics
+     */
+    public Histogram( String label )
+    {
+        this( label, DEFAULT_SUB_BUCKET_BITS );
+    }
+
+    /**
+     * @param label         label of the statistics, null to not report them
+     * @param subBucketBits number of bits of sub bucket, higher is more accurate but uses more memory
+     */
+    @SuppressWarnings("LeakingThisInConstructor")
+    public Histogram( String label, int subBucketBits )
+    {
+        if( subBucketBits < 1 || subBucketBits > 16 ) {
+            throw new IllegalArgumentException( "subBucketBits must be between 1 and 16" );
+        }
+        this.label = label;
+        this.subBucketBits = subBucketBits;
+        bucketCount = (64 - subBucketBits) << subBucketBits;
+        empty = new Snapshot( subBucketBits, new long[bucketCount + 2] );
+        total = empty;
+        interval = empty;
+        lastMinute = empty;
+
+        if( label != null ) {
+            MetricsRegistry.INSTANCE.register( this );
+        }
+    }
+
+    private Recorder newRecorder()
+    {
+        Recorder r = new Recorder( Thread.currentThread(), bucketCount + 2 );
+        recorders.add( r );
+        return r;
+    }
+
+    /**
+     * Record a value
+     * <p>
+     * @param value value, negative values are recorded as 0
+     */
+    public void record( long value )
+    {
+        long v = Math.max( 0L, value );
+        Recorder r = recorder.get();
+        r.started.incrementAndGet();
+        long[] c = r.counts;
+        c[index( v, subBucketBits )]++;
+        c[bucketCount] += v;
+        c[bucketCount + 1]++;
+        r.finished.lazySet( r.finished.get() + 1L );
+    }
+
+    /**
+     * Record the time elapsed since a start time
+     * <p>
+     * @param startNanos start time from {@link System#nanoTime()}
+     */
+    public void recordSince( long startNanos )
+    {
+        record( System.nanoTime() - startNanos );
+    }
+
+    /**
+     * Drain every thread's bucket array into the interval and total snapshots
+     */
+    private void drain()
+    {
+        long[] counts = new long[bucketCount + 2];
+        Iterator<Recorder> it = recorders.iterator();
+        while( it.hasNext() ) {
+            Recorder r = it.next();
+            // Check before draining, a thread could record & then die after the swap
+            boolean dead = !r.isAlive();
+            long[] old = r.swap( new long[bucketCount + 2] );
+            for( int i = 0; i < counts.length; i++ ) {
+                counts[i] += old[i];
+            }
+            // Once drained we no longer need the recorder of a dead thread
+            if( dead ) {
+                recorders.remove( r );
+            }
+        }
+
+        Snapshot s = new Snapshot( subBucketBits, counts );
+        interval = interval.merge( s );
+        total = total.merge( s );
+    }
+
+    /**
+     * Returns the values recorded since the previous snapshot.
+     * <p>
+     * @return Snapshot
+     */
+    public synchronized Snapshot snapshot()
+    {
+        drain();
+        Snapshot s = interval;
+        interval = empty;
+        return s;
+    }
+
+    /**
+     * Returns all values recorded. This does not affect what the next {@link #snapshot()} returns.
+     * <p>
+     * @return Snapshot
+     */
+    public synchronized Snapshot getTotal()
+    {
+        drain();
+        return total;
+    }
+
+    /**
+     * The snapshot taken at the end of the last minute, only maintained if the histogram has a label
+     * <p>
+     * @return Snapshot
+     */
+    public Snapshot getLastMinute()
+    {
+        return lastMinute;
+    }
+
+    public String getLabel()
+    {
+        return label;
+    }
+
+    @Override
+    public void minuteTick()
+    {
+        Snapshot s = snapshot();
+        lastMinute = s;
+
+        RateStatistics rateStatistics = MetricsRegistry.INSTANCE.getRateStatistics();
+        if( rateStatistics != null ) {
+            rateStatistics.getConsumer( label + ".p50", BoundedDeque::getLastValue ).accept( toInt( s.getP50() ) );
+            rateStatistics.getConsumer( label + ".p99", BoundedDeque::getLastValue ).accept( toInt( s.getP99() ) );
+            rateStatistics.getConsumer( label + ".p999", BoundedDeque::getLastValue ).accept( toInt( s.getP999() ) );
+        }
+    }
+
+    /**
+     * Stop reporting to {@link RateStatistics}
+     */
+    public void cancel()
+    {
+        MetricsRegistry.INSTANCE.deregister( this );
+    }
+
+    private static int toInt( long v )
+    {
+        return v > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) v;
+    }
+
+    static int index( long v, int subBucketBits )
+    {
+        int subCount = 1 << subBucketBits;
+        if( v < subCount ) {
+            return (int) v;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros( v ) - subBucketBits;
+        return (shift << subBucketBits) + (int) (v >>> shift);
+    }
+
+    static long lowestValue( int index, int subBucketBits )
+    {
+        int subCount = 1 << subBucketBits;
+        if( index < subCount ) {
+            return index;
+        }
+        int shift = (index >> subBucketBits) - 1;
+        long sub = index - ((long) shift << subBucketBits);
+        return sub << shift;
+    }
+
+    static long highestValue( int index, int subBucketBits )
+    {
+        int subCount = 1 << subBucketBits;
+        if( index < subCount ) {
+            return index;
+        }
+        int shift = (index >> subBucketBits) - 1;
+        long sub = index - ((long) shift << subBucketBits);
+        return ((sub + 1L) << shift) - 1L;
+    }
+
+    /**
+     * The bucket array of a single thread.
+     * <p>
+     * Only the owning thread writes to counts, started and finished. A reader swaps counts for a new array and then waits
+     * until every record started before the swap has finished, after which the old array is no longer written to.
+     */
+    private static final class Recorder
+    {
+
+        private final WeakReference<Thread> owner;
+        private final AtomicLong started = new AtomicLong();
+        private final AtomicLong finished = new AtomicLong();
+        private volatile long[] counts;
+
+        Recorder( Thread owner, int size )
+        {
+            this.owner = new WeakReference<>( owner );
+            counts = new long[size];
+        }
+
+        long[] swap( long[] replacement )
+        {
+            long[] old = counts;
+            counts = replacement;
+            long s = started.get();
+            while( finished.get() < s ) {
+                Thread.yield();
+            }
+            return old;
+        }
+
+        boolean isAlive()
+        {
+            Thread t = owner.get();
+            return t != null && t.isAlive();
+        }
+    }
+
+    /**
+     * An immutable set of values recorded by a {@link Histogram}
+     */
+    public static final class Snapshot
+    {
+
+        private final int subBucketBits;
+        private final long[] counts;
+        private final int bucketCount;
+
+        Snapshot( int subBucketBits, long[] counts )
+        {
+            this.subBucketBits = subBucketBits;
+            this.counts = counts;
+            bucketCount = counts.length - 2;
+        }
+
+        /**
+         * Merge two snapshots into a new one
+         * <p>
+         * @param other Snapshot from a histogram with the same number of sub bucket bits
+         * <p>
+         * @return merged snapshot
+         */
+        public Snapshot merge( Snapshot other )
+        {
+            if( other.subBucketBits != subBucketBits ) {
+                throw new IllegalArgumentException( "Cannot merge histograms of different precision" );
+            }
+            long[] c = counts.clone();
+            for( int i = 0; i < c.length; i++ ) {
+                c[i] += other.counts[i];
+            }
+            return new Snapshot( subBucketBits, c );
+        }
+
+        public long getCount()
+        {
+            return counts[bucketCount + 1];
+        }
+
+        public long getSum()
+        {
+            return counts[bucketCount];
+        }
+
+        public double getMean()
+        {
+            long n = getCount();
+            return n == 0 ? 0.0 : (double) getSum() / n;
+        }
+
+        /**
+         * @return lowest value recorded, to the precision of the histogram
+         */
+        public long getMin()
+        {
+            for( int i = 0; i < bucketCount; i++ ) {
+                if( counts[i] > 0 ) {
+                    return lowestValue( i, subBucketBits );
+                }
+            }
+            return 0L;
+        }
+
+        /**
+         * @return highest value recorded, to the precision of the histogram
+         */
+        public long getMax()
+        {
+            for( int i = bucketCount - 1; i >= 0; i-- ) {
+                if( counts[i] > 0 ) {
+                    return highestValue( i, subBucketBits );
+                }
+            }
+            return 0L;
+        }
+
+        /**
+         * Returns the value at a percentile, i.e. the value which that percentage of values are less than or equal to.
+         * <p>
+         * @param percentile percentile between 0 and 100
+         * <p>
+         * @return value, to the precision of the histogram
+         */
+        public long getValueAtPercentile( double percentile )
+        {
+            long n = getCount();
+            if( n == 0 ) {
+                return 0L;
+            }
+            long target = Math.max( 1L, (long) Math.ceil( Math.min( 100.0, percentile ) / 100.0 * n ) );
+            long seen = 0;
+            for( int i = 0; i < bucketCount; i++ ) {
+                seen += counts[i];
+                if( seen >= target ) {
+                    return highestValue( i, subBucketBits );
+                }
+            }
+            return getMax();
+        }
+
+        public long getP50()
+        {
+            return getValueAtPercentile( 50.0 );
+        }
+
+        public long getP90()
+        {
+            return getValueAtPercentile( 90.0 );
+        }
+
+        public long getP99()
+        {
+            return getValueAtPercentile( 99.0 );
+        }
+
+        public long getP999()
+        {
+            return getValueAtPercentile( 99.9 );
+        }
+
+        public JsonObjectBuilder toJsonObjectBuilder()
+        {
+            return Json.createObjectBuilder().
+                    add( "count", getCount() ).
+                    add( "mean", getMean() ).
+                    add( "min", getMin() ).
+                    add( "max", getMax() ).
+                    add( "p50", getP50() ).
+                    add( "p90", getP90() ).
+                    add( "p99", getP99() ).
+                    add( "p999", getP999() );
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.counter;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+
+/**
+ * A Consumer which measures the rate it's called as exponentially weighted moving averages over 1, 5 and 15 minutes,
+ * along with the mean rate since it was created.
+ * <p>
+ * Like {@link RateMonitor} calls are counted in a {@link LongAdder} and the averages are updated once a second by the
+ * {@link MetricsRegistry}, so {@link #accept(java.lang.Object)} never contends with another thread. All rates are per
+ * second.
+ * <p>
+ * If created with a label the count for each minute is passed to {@link RateStatistics}, and
+ * {@link #smoothAlarms(uk.trainwatch.util.counter.Meter.Rate)} can then make that statistic's low & high alarms use a
+ * smoothed rate rather than the count of the last minute.
+ * <p>
+ * @param <T> type consumed
+ * <p>
+ * @author peter
+ */
+public class Meter<T>
+        implements Consumer<T>,
+                   MetricsRegistry.Tickable
+{
+
+    /**
+     * The rates maintained by a meter
+     */
+    public static enum Rate
+    {
+
+        ONE_MINUTE,
+        FIVE_MINUTE,
+        FIFTEEN_MINUTE,
+        MEAN
+    }
+
+    private static final double M1_ALPHA = alpha( 1 );
+    private static final double M5_ALPHA = alpha( 5 );
+    private static final double M15_ALPHA = alpha( 15 );
+
+    /**
+     * The weight given to each one second tick for an average over a number of minutes
+     */
+    private static double alpha( int minutes )
+    {
+        return 1.0 - Math.exp( -1.0 / (60.0 * minutes) );
+    }
+
+    private final LongAdder counter = new LongAdder();
+    private final String label;
+    private final long startTime = System.nanoTime();
+
+    /**
+     * Value of counter at the last tick
+     */
+    private long lastSum;
+    private long minuteCount;
+    private boolean initialised;
+    private volatile double m1Rate;
+    private volatile double m5Rate;
+    private volatile double m15Rate;
+
+    /**
+     * A meter that isn't reported to {@link RateStatistics}
+     */
+    public Meter()
+    {
+        this( null );
+    }
+
+    /**
+     * A meter reporting the count of each minute to {@link RateStatistics}
+     * <p>
+     * @param label label of the statistic, null to not report it
+     */
+    @SuppressWarnings("LeakingThisInConstructor")
+    public Meter( String label )
+    {
+        this.label = label;
+        MetricsRegistry.INSTANCE.register( this );
+    }
+
+    public void cancel()
+    {
+        MetricsRegistry.INSTANCE.deregister( this );
+    }
+
+    @Override
+    public void accept( T t )
+    {
+        counter.increment();
+    }
+
+    /**
+     * Mark that a number of events have occurred
+     * <p>
+     * @param n number of events
+     */
+    public void mark( long n )
+    {
+        counter.add( n );
+    }
+
+    @Override
+    public synchronized void secondTick()
+    {
+        long sum = counter.sum();
+        long delta = sum - lastSum;
+        lastSum = sum;
+        minuteCount += delta;
+
+        if( initialised ) {
+            m1Rate += M1_ALPHA * (delta - m1Rate);
+            m5Rate += M5_ALPHA * (delta - m5Rate);
+            m15Rate += M15_ALPHA * (delta - m15Rate);
+        }
+        else {
+            m1Rate = delta;
+            m5Rate = delta;
+            m15Rate = delta;
+            initialised = true;
+        }
+    }
+
+    @Override
+    public void minuteTick()
+    {
+        final int count;
+        synchronized( this ) {
+            count = minuteCount > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) minuteCount;
+            minuteCount = 0L;
+        }
+
+        if( label != null ) {
+            RateStatistics rateStatistics = MetricsRegistry.INSTANCE.getRateStatistics();
+            if( rateStatistics != null ) {
+                rateStatistics.getConsumer( label ).accept( count );
+            }
+        }
+    }
+
+    public String getLabel()
+    {
+        return label;
+    }
+
+    /**
+     * @return the number of events since the meter was created
+     */
+    public long getCount()
+    {
+        return counter.sum();
+    }
+
+    public double getOneMinuteRate()
+    {
+        return m1Rate;
+    }
+
+    public double getFiveMinuteRate()
+    {
+        return m5Rate;
+    }
+
+    public double getFifteenMinuteRate()
+    {
+        return m15Rate;
+    }
+
+    /**
+     * @return the mean rate since the meter was created
+     */
+    public double getMeanRate()
+    {
+        long elapsed = System.nanoTime() - startTime;
+        return elapsed <= 0 ? 0.0 : getCount() * 1e9 / elapsed;
+    }
+
+    /**
+     * Returns a rate
+     * <p>
+     * @param rate rate required
+     * <p>
+     * @return rate per second
+     */
+    public double getRate( Rate rate )
+    {
+        switch( rate ) {
+            case ONE_MINUTE:
+                return getOneMinuteRate();
+            case FIVE_MINUTE:
+                return getFiveMinuteRate();
+            case FIFTEEN_MINUTE:
+                return getFifteenMinuteRate();
+            case MEAN:
+                return getMeanRate();
+            default:
+                throw new IllegalArgumentException( "Unsupported rate " + rate );
+        }
+    }
+
+    /**
+     * A supplier of a rate per minute, the same units as the counts passed to {@link RateStatistics}, suitable for
+     * {@link BoundedDeque#setAlarmSource(java.util.function.IntSupplier)}
+     * <p>
+     * @param rate rate required
+     * <p>
+     * @return supplier
+     */
+    public IntSupplier perMinute( Rate rate )
+    {
+        return () -> (int) Math.min( Integer.MAX_VALUE, Math.round( getRate( rate ) * 60.0 ) );
+    }
+
+    /**
+     * Make the low & high alarms of this meter's statistic use a smoothed rate per minute
+     * <p>
+     * @param rate rate to use
+     * <p>
+     * @return true if set, false if the meter has no label or there is no {@link RateStatistics} available
+     */
+    public boolean smoothAlarms( Rate rate )
+    {
+        RateStatistics rateStatistics = MetricsRegistry.INSTANCE.getRateStatistics();
+        if( label == null || rateStatistics == null ) {
+            return false;
+        }
+        rateStatistics.getStat( label ).getLastHour().setAlarmSource( perMinute( rate ) );
+        return true;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format( "%s count=%d m1=%.2f m5=%.2f m15=%.2f mean=%.2f", label, getCount(),
+                              getOneMinuteRate(), getFiveMinuteRate(), getFifteenMinuteRate(), getMeanRate() );
+    }
+}
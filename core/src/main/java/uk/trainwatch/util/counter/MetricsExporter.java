@@ -0,0 +1,409 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.counter;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import uk.trainwatch.util.DaemonThreadFactory;
+
+/**
+ * Exports metrics over HTTP in the OpenMetrics text format so they can be scraped by Prometheus.
+ * <p>
+ * The following are exported, each sample labelled with the host name:
+ * <ul>
+ * <li>every {@link RateMonitor} and labelled {@link Meter} as a counter of it's total count</li>
+ * <li>every labelled {@link Histogram}, and any registered with {@link #register(java.lang.String, uk.trainwatch.util.counter.Histogram)},
+ * as a summary. The quantiles are those of the last minute for a labelled histogram, otherwise of every value recorded</li>
+ * <li>any {@link MinMaxMonitor} registered with {@link #register(java.lang.String, uk.trainwatch.util.counter.MinMaxMonitor)}
+ * as name_min and name_max gauges</li>
+ * <li>every {@link RateStatistics.Stat} as a name_minute gauge of it's last value</li>
+ * </ul>
+ * Names are converted to valid metric names by replacing invalid characters with '_', so "feed.rate" becomes
+ * "feed_rate". Should two metrics convert to the same name only the first is exported.
+ * <p>
+ * Each scrape is written into a buffer that's reused between scrapes, so once it has grown to size a scrape creates
+ * very little garbage.
+ * <p>
+ * @author peter
+ */
+public class MetricsExporter
+        implements HttpHandler
+{
+
+    public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    private static final String PATH = "/metrics";
+
+    private final byte[] hostLabel;
+    private final Map<String, String> names = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, MinMaxMonitor> minMaxMonitors = new ConcurrentHashMap<>();
+    private final Object serverLock = new Object();
+    private HttpServer server;
+
+    // Guarded by this
+    private final Set<String> families = new HashSet<>();
+    private byte[] buf = new byte[8192];
+    private int pos;
+
+    /**
+     * An exporter labelling metrics with the local host name
+     */
+    public MetricsExporter()
+    {
+        this( getHostName() );
+    }
+
+    /**
+     * An exporter labelling metrics with a specific host name
+     * <p>
+     * @param hostname host name
+     */
+    public MetricsExporter( String hostname )
+    {
+        hostLabel = ("host=\"" + escape( hostname ) + "\"").getBytes( StandardCharsets.UTF_8 );
+    }
+
+    private static String getHostName()
+    {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        }
+        catch( UnknownHostException ex ) {
+            return "localHost";
+        }
+    }
+
+    private static String escape( String s )
+    {
+        return s.replace( "\\", "\\\\" ).replace( "\"", "\\\"" ).replace( "\n", "\\n" );
+    }
+
+    /**
+     * Export a histogram that isn't labelled
+     * <p>
+     * @param name      name of the metric
+     * @param histogram histogram
+     */
+    public void register( String name, Histogram histogram )
+    {
+        histograms.put( name, histogram );
+    }
+
+    /**
+     * Export a MinMaxMonitor
+     * <p>
+     * @param name    name of the metric
+     * @param monitor monitor
+     */
+    public void register( String name, MinMaxMonitor monitor )
+    {
+        minMaxMonitors.put( name, monitor );
+    }
+
+    /**
+     * Stop exporting a registered metric
+     * <p>
+     * @param name name of the metric
+     */
+    public void deregister( String name )
+    {
+        histograms.remove( name );
+        minMaxMonitors.remove( name );
+    }
+
+    /**
+     * Start serving metrics on /metrics
+     * <p>
+     * @param address address to listen on
+     * <p>
+     * @throws IOException if the server could not be started
+     */
+    public void start( InetSocketAddress address )
+            throws IOException
+    {
+        synchronized( serverLock ) {
+            if( server == null ) {
+                server = HttpServer.create( address, 0 );
+                server.createContext( PATH, this );
+                server.setExecutor( DaemonThreadFactory.INSTANCE.getCachedExecutor() );
+                server.start();
+            }
+        }
+    }
+
+    /**
+     * Stop serving metrics
+     */
+    public void stop()
+    {
+        synchronized( serverLock ) {
+            if( server != null ) {
+                server.stop( 0 );
+                server = null;
+            }
+        }
+    }
+
+    /**
+     * The address being listened on
+     * <p>
+     * @return address or null if not started
+     */
+    public InetSocketAddress getAddress()
+    {
+        synchronized( serverLock ) {
+            return server == null ? null : server.getAddress();
+        }
+    }
+
+    @Override
+    public void handle( HttpExchange exchange )
+            throws IOException
+    {
+        try {
+            String method = exchange.getRequestMethod();
+            boolean head = "HEAD".equals( method );
+            if( !head && !"GET".equals( method ) ) {
+                exchange.sendResponseHeaders( 405, -1 );
+                return;
+            }
+
+            exchange.getResponseHeaders().set( "Content-Type", CONTENT_TYPE );
+            synchronized( this ) {
+                int len = render();
+                exchange.sendResponseHeaders( 200, head ? -1 : len );
+                if( !head ) {
+                    try( OutputStream os = exchange.getResponseBody() ) {
+                        os.write( buf, 0, len );
+                    }
+                }
+            }
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Returns the metrics as they would be served
+     * <p>
+     * @return metrics in OpenMetrics text format
+     */
+    public synchronized String scrape()
+    {
+        return new String( buf, 0, render(), StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * Write the metrics to the buffer
+     * <p>
+     * @return length written
+     */
+    private int render()
+    {
+        pos = 0;
+        families.clear();
+
+        MetricsRegistry.INSTANCE.forEach( m -> {
+            if( m instanceof RateMonitor ) {
+                RateMonitor<?> r = (RateMonitor<?>) m;
+                counter( r.getLabel(), r.getTotal() );
+            }
+            else if( m instanceof Meter ) {
+                Meter<?> r = (Meter<?>) m;
+                if( r.getLabel() != null ) {
+                    counter( r.getLabel(), r.getCount() );
+                }
+            }
+            else if( m instanceof Histogram ) {
+                Histogram h = (Histogram) m;
+                summary( h.getLabel(), h.getLastMinute(), h.getTotal() );
+            }
+        } );
+
+        histograms.forEach( ( n, h ) -> {
+            Histogram.Snapshot total = h.getTotal();
+            summary( n, total, total );
+        } );
+
+        minMaxMonitors.forEach( ( n, m ) -> {
+            long min = m.getMin();
+            // Nothing recorded yet
+            if( min != Long.MAX_VALUE ) {
+                gauge( n, "_min", min );
+                gauge( n, "_max", m.getMax() );
+            }
+        } );
+
+        RateStatistics rateStatistics = MetricsRegistry.INSTANCE.getRateStatistics();
+        if( rateStatistics != null ) {
+            rateStatistics.stream().forEach( s -> gauge( s.getName(), "_minute", s.getLastHour().getLastValue() ) );
+        }
+
+        append( "# EOF\n" );
+        return pos;
+    }
+
+    private String name( String label )
+    {
+        return names.computeIfAbsent( label, MetricsExporter::sanitize );
+    }
+
+    static String sanitize( String label )
+    {
+        char[] c = label.toCharArray();
+        if( c.length == 0 ) {
+            return "_";
+        }
+        for( int i = 0; i < c.length; i++ ) {
+            char ch = c[i];
+            boolean valid = (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || ch == '_' || ch == ':'
+                            || (i > 0 && ch >= '0' && ch <= '9');
+            if( !valid ) {
+                c[i] = '_';
+            }
+        }
+        return new String( c );
+    }
+
+    /**
+     * Write the TYPE line of a metric family
+     * <p>
+     * @return false if the family has already been written
+     */
+    private boolean type( String family, String type )
+    {
+        if( !families.add( family ) ) {
+            return false;
+        }
+        append( "# TYPE " );
+        append( family );
+        append( ' ' );
+        append( type );
+        append( '\n' );
+        return true;
+    }
+
+    private void counter( String label, long value )
+    {
+        String n = name( label );
+        if( type( n, "counter" ) ) {
+            sample( n, "_total", null, value );
+        }
+    }
+
+    private void gauge( String label, String suffix, long value )
+    {
+        String n = name( label ) + suffix;
+        if( type( n, "gauge" ) ) {
+            sample( n, null, null, value );
+        }
+    }
+
+    private void summary( String label, Histogram.Snapshot quantiles, Histogram.Snapshot total )
+    {
+        String n = name( label );
+        if( type( n, "summary" ) ) {
+            sample( n, null, "0.5", quantiles.getP50() );
+            sample( n, null, "0.9", quantiles.getP90() );
+            sample( n, null, "0.99", quantiles.getP99() );
+            sample( n, null, "0.999", quantiles.getP999() );
+            sample( n, "_count", null, total.getCount() );
+            sample( n, "_sum", null, total.getSum() );
+        }
+    }
+
+    private void sample( String name, String suffix, String quantile, long value )
+    {
+        append( name );
+        if( suffix != null ) {
+            append( suffix );
+        }
+        append( '{' );
+        if( quantile != null ) {
+            append( "quantile=\"" );
+            append( quantile );
+            append( "\"," );
+        }
+        ensure( hostLabel.length );
+        System.arraycopy( hostLabel, 0, buf, pos, hostLabel.length );
+        pos += hostLabel.length;
+        append( "} " );
+        append( value );
+        append( '\n' );
+    }
+
+    private void ensure( int n )
+    {
+        if( pos + n > buf.length ) {
+            buf = Arrays.copyOf( buf, Math.max( buf.length << 1, pos + n ) );
+        }
+    }
+
+    private void append( char c )
+    {
+        ensure( 1 );
+        buf[pos++] = (byte) c;
+    }
+
+    /**
+     * Append a string. This is only used for names which have been sanitized so are always ASCII
+     */
+    private void append( String s )
+    {
+        int l = s.length();
+        ensure( l );
+        for( int i = 0; i < l; i++ ) {
+            buf[pos++] = (byte) s.charAt( i );
+        }
+    }
+
+    private void append( long v )
+    {
+        if( v == Long.MIN_VALUE ) {
+            append( Long.toString( v ) );
+            return;
+        }
+        ensure( 20 );
+        if( v < 0 ) {
+            buf[pos++] = '-';
+            v = -v;
+        }
+        int start = pos;
+        do {
+            buf[pos++] = (byte) ('0' + (v % 10));
+            v /= 10;
+        } while( v != 0 );
+        for( int i = start, j = pos - 1; i < j; i++, j-- ) {
+            byte t = buf[i];
+            buf[i] = buf[j];
+            buf[j] = t;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2015 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.counter;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import uk.trainwatch.util.CDIUtils;
+import uk.trainwatch.util.DaemonThreadFactory;
+
+/**
+ * Central registry of metrics, driving all of them from a single scheduled task rather than each one scheduling their
+ * own.
+ * <p>
+ * Registered metrics are ticked once every second and once every minute.
+ * <p>
+ * @author peter
+ */
+public enum MetricsRegistry
+{
+
+    INSTANCE;
+
+    private static final Logger LOG = Logger.getLogger( MetricsRegistry.class.getName() );
+
+    /**
+     * A metric driven by the registry.
+     * <p>
+     * Ticks are made from a single thread so an implementation only needs to synchronize state shared with other
+     * threads.
+     */
+    public static interface Tickable
+    {
+
+        /**
+         * Called once every second
+         */
+        default void secondTick()
+        {
+        }
+
+        /**
+         * Called once every minute, after {@link #secondTick()}
+         */
+        default void minuteTick()
+        {
+        }
+    }
+
+    private final List<Tickable> metrics = new CopyOnWriteArrayList<>();
+    private ScheduledFuture<?> scheduledFuture;
+    private long ticks;
+    private volatile RateStatistics rateStatistics;
+    /**
+     * Set once a CDI lookup has failed so it isn't retried, and logged, on every tick
+     */
+    private volatile boolean rateStatisticsUnavailable;
+
+    /**
+     * Register a metric
+     * <p>
+     * @param metric metric to tick
+     */
+    public void register( Tickable metric )
+    {
+        metrics.add( metric );
+        start();
+    }
+
+    /**
+     * Stop ticking a metric
+     * <p>
+     * @param metric metric
+     * <p>
+     * @return true if it was registered
+     */
+    public boolean deregister( Tickable metric )
+    {
+        return metrics.remove( metric );
+    }
+
+    /**
+     * Perform an action on each registered metric
+     * <p>
+     * @param action action
+     */
+    public void forEach( Consumer<? super Tickable> action )
+    {
+        metrics.forEach( action );
+    }
+
+    private synchronized void start()
+    {
+        if( scheduledFuture == null ) {
+            scheduledFuture = DaemonThreadFactory.INSTANCE.scheduleAtFixedRate( this::tick, 1L, 1L, TimeUnit.SECONDS );
+        }
+    }
+
+    private void tick()
+    {
+        boolean minute = ++ticks % 60 == 0;
+        for( Tickable metric: metrics ) {
+            try {
+                metric.secondTick();
+                if( minute ) {
+                    metric.minuteTick();
+                }
+            }
+            catch( RuntimeException ex ) {
+                // Don't let one metric stop the others or cancel the task
+                LOG.log( Level.WARNING, "Metric tick failed", ex );
+            }
+        }
+    }
+
+    /**
+     * The {@link RateStatistics} instance, looked up from CDI on first use.
+     * <p>
+     * If the lookup fails, e.g. we are not running under CDI, then it is not tried again and this returns null until
+     * {@link #setRateStatistics(uk.trainwatch.util.counter.RateStatistics)} is called.
+     * <p>
+     * @return RateStatistics or null if not available
+     */
+    public RateStatistics getRateStatistics()
+    {
+        if( rateStatistics == null && !rateStatisticsUnavailable ) {
+            try {
+                rateStatistics = CDIUtils.getInstance( RateStatistics.class );
+            }
+            catch( RuntimeException |
+                   LinkageError ex ) {
+                rateStatisticsUnavailable = true;
+                LOG.log( Level.FINE, "No RateStatistics available", ex );
+            }
+        }
+        return rateStatistics;
+    }
+
+    /**
+     * Set the {@link RateStatistics} instance. This is called by RateStatistics itself when it's created by CDI.
+     * <p>
+     * @param rateStatistics RateStatistics
+     */
+    public void setRateStatistics( RateStatistics rateStatistics )
+    {
+        this.rateStatistics = rateStatistics;
+    }
+}
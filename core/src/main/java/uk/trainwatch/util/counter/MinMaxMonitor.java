@@ -15,10 +15,8 @@
  */
 package uk.trainwatch.util.counter;
 
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.LongAccumulator;
 import java.util.function.Consumer;
-import uk.trainwatch.util.DaemonThreadFactory;
 
 /**
  *
@@ -30,26 +28,48 @@ public class MinMaxMonitor
 
     private final LongAccumulator min = new LongAccumulator( Long::min, Long.MAX_VALUE );
     private final LongAccumulator max = new LongAccumulator( Long::max, Long.MIN_VALUE );
+    /**
+     * Submits the values each minute, null for a basic consumer
+     */
+    private final MetricsRegistry.Tickable tickable;
 
     /**
      * A basic consumer
      */
     public MinMaxMonitor()
     {
+        tickable = null;
     }
 
     /**
-     * A consumer which will submit the values & then reset to two consumers
+     * A consumer which will submit the values & then reset to two consumers each minute until {@link #cancel()} is
+     * called
      * <p>
      * @param minConsumer
      * @param maxConsumer
      */
     public MinMaxMonitor( Consumer<Integer> minConsumer, Consumer<Integer> maxConsumer )
     {
-        DaemonThreadFactory.INSTANCE.scheduleAtFixedRate( () -> {
-            minConsumer.accept( toInt( min.getThenReset() ) );
-            maxConsumer.accept( toInt( max.getThenReset() ) );
-        }, 0L, 1L, TimeUnit.MINUTES );
+        tickable = new MetricsRegistry.Tickable()
+        {
+            @Override
+            public void minuteTick()
+            {
+                minConsumer.accept( toInt( min.getThenReset() ) );
+                maxConsumer.accept( toInt( max.getThenReset() ) );
+            }
+        };
+        MetricsRegistry.INSTANCE.register( tickable );
+    }
+
+    /**
+     * Stop submitting the values to the consumers
+     */
+    public void cancel()
+    {
+        if( tickable != null ) {
+            MetricsRegistry.INSTANCE.deregister( tickable );
+        }
     }
 
     @Override
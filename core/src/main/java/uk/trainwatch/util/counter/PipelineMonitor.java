@@ -0,0 +1,297 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.counter;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * Monitors the stages of consumer pipelines, usually created with
+ * {@link uk.trainwatch.util.Consumers#instrument(java.lang.String, java.util.function.Consumer)}.
+ * <p>
+ * Each stage records it's invocation count, error count and a latency {@link Histogram}. When one stage calls another
+ * on the same thread the second is recorded as a child of the first, and the time spent in children is subtracted
+ * from the parent's own time, so {@link #getTopology()} shows both how the stages are connected and where the time
+ * actually goes.
+ * <p>
+ * Monitoring can be disabled globally with {@link #setEnabled(boolean)}, in which case an instrumented stage simply
+ * calls it's consumer.
+ * <p>
+ * @author peter
+ */
+public enum PipelineMonitor
+{
+
+    INSTANCE;
+
+    private final Map<String, Stage> stages = new ConcurrentHashMap<>();
+    private final ThreadLocal<Frames> frames = ThreadLocal.withInitial( Frames::new );
+    private volatile boolean enabled = !Boolean.getBoolean( "uk.trainwatch.pipeline.disabled" );
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Enable or disable monitoring of all stages
+     * <p>
+     * @param enabled true to enable
+     */
+    public void setEnabled( boolean enabled )
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Get a stage, creating it if required
+     * <p>
+     * @param name name of the stage
+     * <p>
+     * @return Stage
+     */
+    public Stage getStage( String name )
+    {
+        Objects.requireNonNull( name );
+        return stages.computeIfAbsent( name, Stage::new );
+    }
+
+    public Collection<Stage> getStages()
+    {
+        return stages.values();
+    }
+
+    /**
+     * Returns the pipeline topology. Each stage not called by another is listed with the stages it calls indented below
+     * it.
+     * <p>
+     * @return topology
+     */
+    public String getTopology()
+    {
+        StringBuilder sb = new StringBuilder();
+        stages.values().stream().
+                filter( s -> !s.hasParent ).
+                sorted( ( a, b ) -> a.name.compareTo( b.name ) ).
+                forEach( s -> append( sb, s, 0 ) );
+        return sb.toString();
+    }
+
+    private void append( StringBuilder sb, Stage s, int depth )
+    {
+        for( int i = 0; i < depth; i++ ) {
+            sb.append( "  " );
+        }
+        sb.append( s ).append( '\n' );
+        // Guard against a cycle of stages
+        if( depth < 32 ) {
+            s.children.keySet().stream().
+                    sorted( ( a, b ) -> a.name.compareTo( b.name ) ).
+                    forEach( c -> append( sb, c, depth + 1 ) );
+        }
+    }
+
+    public JsonObjectBuilder toJsonObjectBuilder()
+    {
+        JsonArrayBuilder a = Json.createArrayBuilder();
+        stages.values().forEach( s -> a.add( s.toJsonObjectBuilder() ) );
+        return Json.createObjectBuilder().add( "stages", a );
+    }
+
+    /**
+     * The stack of stages running on a thread along with the time spent in each one's children.
+     */
+    private static final class Frames
+    {
+
+        private Stage[] stages = new Stage[8];
+        private long[] childNanos = new long[8];
+        private int depth;
+
+        Stage push( Stage stage )
+        {
+            if( depth == stages.length ) {
+                stages = Arrays.copyOf( stages, depth << 1 );
+                childNanos = Arrays.copyOf( childNanos, depth << 1 );
+            }
+            Stage parent = depth == 0 ? null : stages[depth - 1];
+            stages[depth] = stage;
+            childNanos[depth] = 0L;
+            depth++;
+            return parent;
+        }
+
+        long pop( long elapsed )
+        {
+            depth--;
+            stages[depth] = null;
+            long child = childNanos[depth];
+            if( depth > 0 ) {
+                childNanos[depth - 1] += elapsed;
+            }
+            return child;
+        }
+    }
+
+    /**
+     * A single stage of a pipeline
+     */
+    public final class Stage
+    {
+
+        private final String name;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder selfNanos = new LongAdder();
+        private final Histogram latency;
+        private final Map<Stage, Boolean> children = new ConcurrentHashMap<>();
+        private volatile boolean hasParent;
+
+        private Stage( String name )
+        {
+            this.name = name;
+            latency = new Histogram( name + ".latency" );
+        }
+
+        /**
+         * Pass a value to a consumer, recording the call against this stage
+         * <p>
+         * @param <T> type of value
+         * @param c   consumer
+         * @param v   value
+         */
+        public <T> void accept( Consumer<T> c, T v )
+        {
+            if( !enabled ) {
+                c.accept( v );
+                return;
+            }
+
+            Frames f = frames.get();
+            Stage parent = f.push( this );
+            if( parent != null ) {
+                parent.addChild( this );
+            }
+
+            long start = System.nanoTime();
+            try {
+                c.accept( v );
+            }
+            catch( RuntimeException | Error ex ) {
+                errors.increment();
+                throw ex;
+            }
+            finally {
+                long elapsed = System.nanoTime() - start;
+                long child = f.pop( elapsed );
+                count.increment();
+                totalNanos.add( elapsed );
+                selfNanos.add( Math.max( 0L, elapsed - child ) );
+                latency.record( elapsed );
+            }
+        }
+
+        private void addChild( Stage child )
+        {
+            // Check first, this is almost always already present
+            if( !children.containsKey( child ) ) {
+                children.put( child, Boolean.TRUE );
+                child.hasParent = true;
+            }
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public long getCount()
+        {
+            return count.sum();
+        }
+
+        public long getErrors()
+        {
+            return errors.sum();
+        }
+
+        /**
+         * @return total time spent in this stage including the stages it calls, in nanoseconds
+         */
+        public long getTotalNanos()
+        {
+            return totalNanos.sum();
+        }
+
+        /**
+         * @return time spent in this stage excluding the stages it calls, in nanoseconds
+         */
+        public long getSelfNanos()
+        {
+            return selfNanos.sum();
+        }
+
+        public Histogram getLatency()
+        {
+            return latency;
+        }
+
+        /**
+         * @return the stages called by this stage
+         */
+        public Set<Stage> getChildren()
+        {
+            return children.keySet();
+        }
+
+        @Override
+        public String toString()
+        {
+            long n = getCount();
+            long total = getTotalNanos();
+            long self = getSelfNanos();
+            return String.format( "%s count=%d errors=%d mean=%.1fus self=%.1fus (%.0f%%)",
+                                  name, n, getErrors(),
+                                  n == 0 ? 0.0 : total / 1000.0 / n,
+                                  n == 0 ? 0.0 : self / 1000.0 / n,
+                                  total == 0 ? 0.0 : 100.0 * self / total );
+        }
+
+        public JsonObjectBuilder toJsonObjectBuilder()
+        {
+            JsonArrayBuilder c = Json.createArrayBuilder();
+            children.keySet().forEach( s -> c.add( s.name ) );
+            return Json.createObjectBuilder().
+                    add( "name", name ).
+                    add( "count", getCount() ).
+                    add( "errors", getErrors() ).
+                    add( "totalNanos", getTotalNanos() ).
+                    add( "selfNanos", getSelfNanos() ).
+                    add( "latency", latency.getTotal().toJsonObjectBuilder() ).
+                    add( "children", c );
+        }
+    }
+}
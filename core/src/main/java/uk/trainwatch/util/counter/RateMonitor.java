@@ -6,22 +6,20 @@
 package uk.trainwatch.util.counter;
 
 import java.util.Objects;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.inject.Inject;
-import uk.trainwatch.util.CDIUtils;
-import uk.trainwatch.util.DaemonThreadFactory;
 
 /**
  * A Consumer which counts the number of times it's called.
  * <p>
  * Behind the scenes this also logs the rate once per minute and then resets.
  * <p>
+ * The count is held in a {@link LongAdder} so many threads can call {@link #accept(java.lang.Object)} without
+ * contending on a single value. The per second and per minute rates are updated by the {@link MetricsRegistry}.
+ * <p>
  * Normal use you need to create a single instance of RateMonitor and then from within a stream by using
  * {@code peek( rateMonitor ).}
  * <p>
@@ -35,21 +33,29 @@ import uk.trainwatch.util.DaemonThreadFactory;
  * @author Peter T Mount
  */
 public class RateMonitor<T>
-        implements Consumer<T>
+        implements Consumer<T>,
+                   MetricsRegistry.Tickable
 {
 
-    private final AtomicInteger counter = new AtomicInteger();
-    private final ScheduledFuture<?> scheduledFuture;
+    private final LongAdder counter = new LongAdder();
+    private volatile boolean cancelled;
 
     @SuppressWarnings("NonConstantLogger")
     private final Logger log;
-
-    @Inject
-    private RateStatistics rateStatistics;
+    private final Level level;
 
     private final String label;
-    private int lastCount;
-    private long total;
+    /**
+     * Value of counter at the last tick
+     */
+    private long lastSum;
+    /**
+     * Count within the current minute up to the last tick
+     */
+    private long minuteCount;
+    private volatile int lastSecond;
+    private volatile int lastCount;
+    private volatile long total;
 
     public static <T> Consumer<T> consumer( String label )
     {
@@ -103,32 +109,69 @@ public class RateMonitor<T>
     public RateMonitor( Logger log, Level level, String label )
     {
         this.log = log == null ? Logger.getLogger( RateMonitor.class.getName() ) : log;
+        this.level = level;
         this.label = label;
 
-        CDIUtils.inject( this );
+        // Ensure the statistic exists from the start
+        minuteTick();
 
-        Runnable task = () -> {
-            // Read & reset the count. Don't put it in the logger as we use a supplier & won't be invoked if the logger
-            // isn't showing the required level
-            lastCount = counter.getAndSet( 0 );
-            total += lastCount;
+        MetricsRegistry.INSTANCE.register( this );
+    }
 
-            // Reduce logspam by only logging when we've done something
-            if( lastCount > 0 ) {
-                this.log.log( level, () -> label + ' ' + lastCount );
-            }
+    /**
+     * Take the count since the last tick. As the adder is never reset no updates are lost whilst we read it.
+     * <p>
+     * @return count since the last tick
+     */
+    private synchronized long delta()
+    {
+        long sum = counter.sum();
+        long delta = sum - lastSum;
+        lastSum = sum;
+        return delta;
+    }
 
-            rateStatistics.getConsumer( label ).accept( lastCount );
-        };
+    private static int toInt( long v )
+    {
+        return v > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) v;
+    }
 
-        scheduledFuture = DaemonThreadFactory.INSTANCE.scheduleAtFixedRate( task, 1L, 1L, TimeUnit.MINUTES );
-        task.run();
+    @Override
+    public synchronized void secondTick()
+    {
+        long delta = delta();
+        lastSecond = toInt( delta );
+        minuteCount += delta;
+    }
+
+    @Override
+    public void minuteTick()
+    {
+        // Read & reset the count. Don't put it in the logger as we use a supplier & won't be invoked if the logger
+        // isn't showing the required level
+        final int count;
+        synchronized( this ) {
+            count = toInt( minuteCount );
+            minuteCount = 0L;
+        }
+        lastCount = count;
+        total += count;
+
+        // Reduce logspam by only logging when we've done something
+        if( count > 0 ) {
+            this.log.log( level, () -> label + ' ' + count );
+        }
+
+        RateStatistics rateStatistics = MetricsRegistry.INSTANCE.getRateStatistics();
+        if( rateStatistics != null ) {
+            rateStatistics.getConsumer( label ).accept( count );
+        }
     }
 
     @Override
     public String toString()
     {
-        return label + ' ' + lastCount + "/" + (total + counter.get());
+        return label + ' ' + lastCount + "/" + (total + get());
     }
 
     public static <T> RateMonitor<T> log( String log, String label )
@@ -154,37 +197,78 @@ public class RateMonitor<T>
     @Override
     public void accept( T t )
     {
-        counter.incrementAndGet();
+        counter.increment();
     }
 
     /**
-     * The current snapshot of the counter's value.
+     * The current snapshot of the counter's value, i.e. the count within the current minute.
      * <p>
      * @return
      */
-    public final int get()
+    public final synchronized int get()
+    {
+        return toInt( minuteCount + counter.sum() - lastSum );
+    }
+
+    /**
+     * The count in the last complete second
+     * <p>
+     * @return count
+     */
+    public final int getLastSecond()
+    {
+        return lastSecond;
+    }
+
+    /**
+     * The count in the last complete minute
+     * <p>
+     * @return count
+     */
+    public final int getLastMinute()
+    {
+        return lastCount;
+    }
+
+    /**
+     * The total count since this monitor was created
+     * <p>
+     * @return count
+     */
+    public final long getTotal()
+    {
+        return counter.sum();
+    }
+
+    public final String getLabel()
     {
-        return counter.get();
+        return label;
     }
 
     public boolean cancel( boolean mayInterruptIfRunning )
     {
-        return scheduledFuture.cancel( mayInterruptIfRunning );
+        if( cancelled ) {
+            return false;
+        }
+        cancelled = true;
+        return MetricsRegistry.INSTANCE.deregister( this );
     }
 
     public boolean isCancelled()
     {
-        return scheduledFuture.isCancelled();
+        return cancelled;
     }
 
     public boolean isDone()
     {
-        return scheduledFuture.isDone();
+        return cancelled;
     }
 
-    public final void reset()
+    public final synchronized void reset()
     {
-        counter.set( 0 );
+        lastSum = counter.sum();
+        minuteCount = 0L;
+        lastSecond = 0;
         lastCount = 0;
         total = 0L;
     }
@@ -21,6 +21,7 @@ import java.time.Duration;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.logging.Level;
@@ -29,6 +30,7 @@ import java.util.stream.Stream;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
+import javax.sql.DataSource;
 
 /**
  *
@@ -40,11 +42,8 @@ public class RateStatistics
 
     private static final Logger LOG = Logger.getLogger( RateStatistics.class.getName() );
 
-//    @Database("rail")
-//    @Inject
-//    private DataSource dataSource;
-
     private ScheduledFuture<?> scheduledFuture;
+    private volatile StatisticsPersister persister;
 
     private final Map<String, Stat> stats = new ConcurrentHashMap<>();
     private String hostname;
@@ -64,6 +63,7 @@ public class RateStatistics
     void start()
     {
         hostname = getHostName();
+        MetricsRegistry.INSTANCE.setRateStatistics( this );
     }
 
     @PreDestroy
@@ -72,19 +72,51 @@ public class RateStatistics
         if( scheduledFuture != null ) {
             scheduledFuture.cancel( true );
         }
+        setDataSource( null );
+    }
+
+    /**
+     * Set the DataSource statistics are persisted to. Samples are written to {@code report.stats} asynchronously by a
+     * {@link StatisticsPersister} so a busy database never blocks the caller.
+     * <p>
+     * @param dataSource DataSource, null to stop persisting
+     */
+    public synchronized void setDataSource( DataSource dataSource )
+    {
+        StatisticsPersister old = persister;
+        persister = null;
+        if( old != null ) {
+            try {
+                old.stop( 10, TimeUnit.SECONDS );
+            }
+            catch( InterruptedException ex ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if( dataSource != null ) {
+            StatisticsPersister p = new StatisticsPersister( dataSource, hostname == null ? getHostName() : hostname );
+            p.start();
+            persister = p;
+        }
+    }
+
+    /**
+     * The current persister
+     * <p>
+     * @return persister or null if statistics are not being persisted
+     */
+    public StatisticsPersister getPersister()
+    {
+        return persister;
     }
 
     private void persist( Stat stat, int value )
     {
         LOG.log( Level.FINE, () -> stat.getName() + "=" + value );
-        if( value > 0 ) {
-//            try( Connection con = dataSource.getConnection();
-//                 PreparedStatement ps = SQL.prepare( con, "INSERT INTO report.stats (tm,name,value,host) VALUES (now(),?,?,?)" ) ) {
-//                SQL.executeUpdate( ps, stat.getName(), value, hostname );
-//            }
-//            catch( Throwable ex ) {
-//                LOG.log( Level.SEVERE, null, ex );
-//            }
+        StatisticsPersister p = persister;
+        if( value > 0 && p != null ) {
+            p.offer( stat.getName(), value );
         }
     }
 
@@ -109,6 +141,23 @@ public class RateStatistics
     }
 
     public Consumer<Integer> getConsumer( String label, Function<BoundedDeque, Integer> aggregator )
+    {
+        return getStat( label, aggregator );
+    }
+
+    /**
+     * Returns the statistic for a label, creating it if required
+     * <p>
+     * @param label label
+     * <p>
+     * @return Stat
+     */
+    public Stat getStat( String label )
+    {
+        return getStat( label, BoundedDeque::getTotal );
+    }
+
+    public Stat getStat( String label, Function<BoundedDeque, Integer> aggregator )
     {
         String l = label;
         int i = label.indexOf( '[' );
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.counter;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+import uk.trainwatch.util.DaemonThreadFactory;
+import uk.trainwatch.util.sql.SQL;
+
+/**
+ * Writes {@link RateStatistics} samples to the database from a dedicated thread.
+ * <p>
+ * Samples are queued by {@link #offer(java.lang.String, int)} which never blocks: if the queue is full the sample is
+ * dropped and counted. The writer thread drains the queue into JDBC batches, each written in a single transaction.
+ * Should the database be unavailable the batch is kept and retried with an exponential backoff, new samples being
+ * queued up to the queue's capacity in the meantime.
+ * <p>
+ * @author peter
+ */
+public class StatisticsPersister
+        implements Runnable
+{
+
+    private static final Logger LOG = Logger.getLogger( StatisticsPersister.class.getName() );
+
+    private static final String INSERT = "INSERT INTO report.stats (tm,name,value,host) VALUES (?,?,?,?)";
+
+    private static final long MIN_BACKOFF = 1000L;
+    private static final long MAX_BACKOFF = 60000L;
+
+    private final DataSource dataSource;
+    private final String hostname;
+    private final int batchSize;
+    private final BlockingQueue<Sample> queue;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * Create a persister holding up to 10000 samples, writing them in batches of up to 500
+     * <p>
+     * @param dataSource DataSource to write to
+     * @param hostname   host name to record against each sample
+     */
+    public StatisticsPersister( DataSource dataSource, String hostname )
+    {
+        this( dataSource, hostname, 10000, 500 );
+    }
+
+    /**
+     * Create a persister
+     * <p>
+     * @param dataSource DataSource to write to
+     * @param hostname   host name to record against each sample
+     * @param capacity   maximum number of samples waiting to be written
+     * @param batchSize  maximum number of samples written in one batch
+     */
+    public StatisticsPersister( DataSource dataSource, String hostname, int capacity, int batchSize )
+    {
+        if( capacity < 1 || batchSize < 1 ) {
+            throw new IllegalArgumentException( "capacity and batchSize must be positive" );
+        }
+        this.dataSource = Objects.requireNonNull( dataSource );
+        this.hostname = hostname;
+        this.batchSize = batchSize;
+        queue = new ArrayBlockingQueue<>( capacity );
+    }
+
+    /**
+     * Start the writer thread
+     */
+    public synchronized void start()
+    {
+        if( thread == null ) {
+            running = true;
+            thread = DaemonThreadFactory.INSTANCE.newThread( this );
+            thread.setName( "RateStatistics-persister" );
+            thread.start();
+        }
+    }
+
+    /**
+     * Stop the writer thread. Any queued samples are written with a single attempt before the thread exits.
+     * <p>
+     * @param timeout maximum time to wait for the thread to finish
+     * @param unit    unit of timeout
+     * <p>
+     * @throws InterruptedException if interrupted whilst waiting
+     */
+    public void stop( long timeout, TimeUnit unit )
+            throws InterruptedException
+    {
+        Thread t;
+        synchronized( this ) {
+            t = thread;
+            thread = null;
+        }
+        if( t != null ) {
+            running = false;
+            t.interrupt();
+            t.join( unit.toMillis( timeout ) );
+        }
+    }
+
+    /**
+     * Queue a sample to be written. This never blocks.
+     * <p>
+     * @param name  statistic name
+     * @param value value
+     * <p>
+     * @return true if queued, false if the queue was full and the sample dropped
+     */
+    public boolean offer( String name, int value )
+    {
+        if( queue.offer( new Sample( System.currentTimeMillis(), name, value ) ) ) {
+            return true;
+        }
+        dropped.increment();
+        return false;
+    }
+
+    /**
+     * @return number of samples waiting to be written
+     */
+    public int getQueued()
+    {
+        return queue.size();
+    }
+
+    /**
+     * @return number of samples written to the database
+     */
+    public long getWritten()
+    {
+        return written.sum();
+    }
+
+    /**
+     * @return number of samples dropped because the queue was full
+     */
+    public long getDropped()
+    {
+        return dropped.sum();
+    }
+
+    /**
+     * @return number of failed attempts to write a batch
+     */
+    public long getFailures()
+    {
+        return failures.sum();
+    }
+
+    @Override
+    public void run()
+    {
+        List<Sample> batch = new ArrayList<>( batchSize );
+        long backoff = MIN_BACKOFF;
+        try {
+            while( running ) {
+                if( batch.isEmpty() ) {
+                    batch.add( queue.take() );
+                    queue.drainTo( batch, batchSize - 1 );
+                }
+
+                if( write( batch ) ) {
+                    batch.clear();
+                    backoff = MIN_BACKOFF;
+                }
+                else {
+                    Thread.sleep( backoff );
+                    backoff = Math.min( backoff << 1, MAX_BACKOFF );
+                }
+            }
+        }
+        catch( InterruptedException ex ) {
+            // Shutting down
+        }
+
+        // Clear the interrupt so the final flush isn't affected by it
+        Thread.interrupted();
+        queue.drainTo( batch );
+        if( !batch.isEmpty() && !write( batch ) ) {
+            LOG.log( Level.WARNING, () -> "Lost " + batch.size() + " statistics on shutdown" );
+        }
+    }
+
+    private boolean write( List<Sample> batch )
+    {
+        try( Connection con = dataSource.getConnection() ) {
+            boolean autoCommit = con.getAutoCommit();
+            con.setAutoCommit( false );
+            try( PreparedStatement ps = con.prepareStatement( INSERT ) ) {
+                int n = 0;
+                for( Sample s: batch ) {
+                    SQL.executeBatch( ps, new Timestamp( s.time ), s.name, s.value, hostname );
+                    if( ++n % batchSize == 0 ) {
+                        ps.executeBatch();
+                    }
+                }
+                if( n % batchSize != 0 ) {
+                    ps.executeBatch();
+                }
+                con.commit();
+            }
+            catch( SQLException ex ) {
+                con.rollback();
+                throw ex;
+            }
+            finally {
+                con.setAutoCommit( autoCommit );
+            }
+            written.add( batch.size() );
+            return true;
+        }
+        catch( SQLException ex ) {
+            failures.increment();
+            LOG.log( Level.WARNING, "Failed to persist " + batch.size() + " statistics, will retry", ex );
+            return false;
+        }
+    }
+
+    private static final class Sample
+    {
+
+        private final long time;
+        private final String name;
+        private final int value;
+
+        private Sample( long time, String name, int value )
+        {
+            this.time = time;
+            this.name = name;
+            this.value = value;
+        }
+    }
+}
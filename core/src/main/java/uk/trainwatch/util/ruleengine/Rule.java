@@ -0,0 +1,54 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.ruleengine;
+
+import java.io.Serializable;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * A rule with an optional predicate, kept apart from it's action so a {@link RuleEvaluator} can call both directly
+ *
+ * @author peter
+ * @param <T>
+ */
+final class Rule<T>
+        implements Consumer<T>,
+                   Serializable
+{
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Predicate or null to always apply the action
+     */
+    final Predicate<T> predicate;
+    final Consumer<T> action;
+
+    Rule( Predicate<T> predicate, Consumer<T> action )
+    {
+        this.predicate = predicate;
+        this.action = action;
+    }
+
+    @Override
+    public void accept( T t )
+    {
+        if( predicate == null || predicate.test( t ) ) {
+            action.accept( t );
+        }
+    }
+}
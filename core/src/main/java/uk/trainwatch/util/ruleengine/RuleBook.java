@@ -15,6 +15,8 @@
  */
 package uk.trainwatch.util.ruleengine;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.Map;
 import java.util.Objects;
@@ -25,6 +27,11 @@ import uk.trainwatch.util.Consumers;
 
 /**
  * A Book of Rules
+ * <p>
+ * The consumers returned by {@link #getConsumer()} and {@link #getConsumer(java.lang.Class)} evaluate the rules using
+ * a {@link RuleEvaluator} compiled from the book. Any change to the book or one of it's RuleSets discards that
+ * evaluator and the next value to be consumed compiles a new one, so values are always evaluated against a consistent
+ * set of rules.
  *
  * @author peter
  */
@@ -36,6 +43,49 @@ public class RuleBook
 
     private final Map<Class<?>, RuleSet<?>> ruleSets = new ConcurrentHashMap<>();
 
+    private transient volatile RuleEvaluator evaluator;
+
+    private void readObject( ObjectInputStream in )
+            throws IOException,
+                   ClassNotFoundException
+    {
+        in.defaultReadObject();
+        ruleSets.values().forEach( s -> s.setRuleBook( this ) );
+    }
+
+    /**
+     * Called when a rule or RuleSet has changed so the evaluator is recompiled
+     */
+    synchronized void changed()
+    {
+        evaluator = null;
+    }
+
+    /**
+     * Compile the current rules into a new {@link RuleEvaluator} which is then used by the consumers of this book.
+     * <p>
+     * The evaluator does not change if the rules are changed afterwards.
+     *
+     * @return RuleEvaluator
+     */
+    public synchronized RuleEvaluator compile()
+    {
+        RuleEvaluator e = new RuleEvaluator( ruleSets.values() );
+        evaluator = e;
+        return e;
+    }
+
+    /**
+     * The current evaluator, compiling it if the rules have changed
+     *
+     * @return RuleEvaluator
+     */
+    public RuleEvaluator getEvaluator()
+    {
+        RuleEvaluator e = evaluator;
+        return e == null ? compile() : e;
+    }
+
     /**
      * Get a specific rule
      *
@@ -76,7 +126,16 @@ public class RuleBook
     public <T> RuleSet<T> createRuleSet( Class<T> clazz )
     {
         Objects.requireNonNull( clazz );
-        return (RuleSet<T>) ruleSets.computeIfAbsent( clazz, RuleSet::new );
+        RuleSet<T> s = getRuleSet( clazz );
+        if( s == null ) {
+            s = (RuleSet<T>) ruleSets.computeIfAbsent( clazz, c -> {
+                                                   RuleSet<?> n = new RuleSet<>( c );
+                                                   n.setRuleBook( this );
+                                                   return n;
+                                               } );
+            changed();
+        }
+        return s;
     }
 
     /**
@@ -87,7 +146,11 @@ public class RuleBook
     public void removeRuleSet( Class<?> clazz )
     {
         Objects.requireNonNull( clazz );
-        ruleSets.remove( clazz );
+        RuleSet<?> s = ruleSets.remove( clazz );
+        if( s != null ) {
+            s.setRuleBook( null );
+            changed();
+        }
     }
 
     /**
@@ -99,7 +162,12 @@ public class RuleBook
     {
         Objects.requireNonNull( ruleSet );
         Objects.requireNonNull( ruleSet.getClazz() );
-        ruleSets.put( ruleSet.getClazz(), ruleSet );
+        ruleSet.setRuleBook( this );
+        RuleSet<?> old = ruleSets.put( ruleSet.getClazz(), ruleSet );
+        if( old != null && old != ruleSet ) {
+            old.setRuleBook( null );
+        }
+        changed();
     }
 
     /**
@@ -128,6 +196,8 @@ public class RuleBook
     /**
      * Returns a {@link Consumer} that will accept a class and delegate to the specified class.
      * <p>
+     * The rules applied are those of the class, it's superclasses and interfaces.
+     * <p>
      * This is the preferred method to use rather than the more generic {@link #getConsumer()} method.
      *
      * @param <T>   Type the consumer is to accept
@@ -140,17 +210,14 @@ public class RuleBook
     public <T> Consumer<T> getConsumer( Class<T> clazz )
     {
         Objects.requireNonNull( clazz );
-        return Consumers.consumeIfNotNull( v -> {
-            RuleSet rs = getRuleSet( clazz );
-            if( rs != null ) {
-                rs.accept( v );
-            }
-        } );
+        return Consumers.consumeIfNotNull( v -> getEvaluator().accept( clazz, v ) );
     }
 
     /**
      * Returns a {@link Consumer} that will accept a value and attempt to delegate to to a RuleSet based on it's class.
      * <p>
+     * The rules applied are those of the value's class, it's superclasses and interfaces.
+     * <p>
      * This is a more generic version of {@link #getConsumer(java.lang.Class)}.
      *
      * @param <T>
@@ -161,12 +228,7 @@ public class RuleBook
      */
     public <T> Consumer<T> getConsumer()
     {
-        return Consumers.consumeIfNotNull( v -> {
-            RuleSet rs = getRuleSet( v.getClass() );
-            if( rs != null ) {
-                rs.accept( v );
-            }
-        } );
+        return Consumers.consumeIfNotNull( v -> getEvaluator().accept( v ) );
     }
 
     /**
@@ -174,7 +236,9 @@ public class RuleBook
      */
     public void clear()
     {
+        ruleSets.values().forEach( s -> s.setRuleBook( null ) );
         ruleSets.clear();
+        changed();
     }
 
     /**
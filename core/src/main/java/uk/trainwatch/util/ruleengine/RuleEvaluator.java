@@ -0,0 +1,201 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.ruleengine;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * An immutable, compiled form of a {@link RuleBook}.
+ * <p>
+ * Each RuleSet's rules are flattened into arrays of predicates and actions which are called directly. The rules
+ * applying to a class are those of it's own RuleSet followed by those of it's superclasses and then the interfaces it
+ * implements. These are resolved once per class and cached in a {@link ClassValue}, so evaluating a value costs a
+ * {@link ClassValue#get(java.lang.Class)} and a loop over an array.
+ *
+ * @author peter
+ * @see RuleBook#compile()
+ */
+public final class RuleEvaluator
+        implements Consumer<Object>
+{
+
+    private static final Rules EMPTY = emptyRules();
+
+    private final Map<Class<?>, Rules> ruleSets = new HashMap<>();
+
+    private final ClassValue<Rules> resolved = new ClassValue<Rules>()
+    {
+        @Override
+        protected Rules computeValue( Class<?> type )
+        {
+            return resolve( type );
+        }
+    };
+
+    @SuppressWarnings("unchecked")
+    private static Rules emptyRules()
+    {
+        return new Rules( new Predicate[0], new Consumer[0] );
+    }
+
+    @SuppressWarnings("unchecked")
+    RuleEvaluator( Collection<RuleSet<?>> sets )
+    {
+        List<Predicate<Object>> predicates = new ArrayList<>();
+        List<Consumer<Object>> actions = new ArrayList<>();
+        for( RuleSet<?> s: sets ) {
+            predicates.clear();
+            actions.clear();
+            s.rules().forEach( r -> {
+                if( r instanceof Rule ) {
+                    predicates.add( ((Rule<Object>) r).predicate );
+                    actions.add( ((Rule<Object>) r).action );
+                }
+                else {
+                    predicates.add( null );
+                    actions.add( (Consumer<Object>) r );
+                }
+            } );
+            ruleSets.put( s.getClazz(), new Rules( predicates.toArray( new Predicate[predicates.size()] ),
+                                                   actions.toArray( new Consumer[actions.size()] ) ) );
+        }
+    }
+
+    /**
+     * Merge the rules of a class, it's superclasses and interfaces
+     */
+    @SuppressWarnings("unchecked")
+    private Rules resolve( Class<?> type )
+    {
+        List<Rules> found = new ArrayList<>();
+
+        for( Class<?> c = type; c != null; c = c.getSuperclass() ) {
+            Rules r = ruleSets.get( c );
+            if( r != null ) {
+                found.add( r );
+            }
+        }
+
+        Deque<Class<?>> queue = new ArrayDeque<>();
+        Set<Class<?>> seen = new HashSet<>();
+        for( Class<?> c = type; c != null; c = c.getSuperclass() ) {
+            queue.addAll( Arrays.asList( c.getInterfaces() ) );
+        }
+        while( !queue.isEmpty() ) {
+            Class<?> i = queue.removeFirst();
+            if( seen.add( i ) ) {
+                Rules r = ruleSets.get( i );
+                if( r != null ) {
+                    found.add( r );
+                }
+                queue.addAll( Arrays.asList( i.getInterfaces() ) );
+            }
+        }
+
+        if( found.isEmpty() ) {
+            return EMPTY;
+        }
+        if( found.size() == 1 ) {
+            return found.get( 0 );
+        }
+
+        int n = 0;
+        for( Rules r: found ) {
+            n += r.actions.length;
+        }
+        Predicate<Object>[] predicates = new Predicate[n];
+        Consumer<Object>[] actions = new Consumer[n];
+        int i = 0;
+        for( Rules r: found ) {
+            System.arraycopy( r.predicates, 0, predicates, i, r.actions.length );
+            System.arraycopy( r.actions, 0, actions, i, r.actions.length );
+            i += r.actions.length;
+        }
+        return new Rules( predicates, actions );
+    }
+
+    /**
+     * Apply the rules for the value's class
+     *
+     * @param v value, ignored if null
+     */
+    @Override
+    public void accept( Object v )
+    {
+        if( v != null ) {
+            resolved.get( v.getClass() ).accept( v );
+        }
+    }
+
+    /**
+     * Apply the rules for a specific class
+     *
+     * @param clazz class whose rules to apply
+     * @param v     value, ignored if null
+     */
+    public void accept( Class<?> clazz, Object v )
+    {
+        if( v != null ) {
+            resolved.get( clazz ).accept( v );
+        }
+    }
+
+    /**
+     * The number of rules that apply to a class
+     *
+     * @param clazz class
+     *
+     * @return number of rules including those of it's superclasses and interfaces
+     */
+    public int getRuleCount( Class<?> clazz )
+    {
+        return resolved.get( clazz ).actions.length;
+    }
+
+    private static final class Rules
+    {
+
+        private final Predicate<Object>[] predicates;
+        private final Consumer<Object>[] actions;
+
+        private Rules( Predicate<Object>[] predicates, Consumer<Object>[] actions )
+        {
+            this.predicates = predicates;
+            this.actions = actions;
+        }
+
+        private void accept( Object v )
+        {
+            for( int i = 0; i < actions.length; i++ ) {
+                Predicate<Object> p = predicates[i];
+                if( p == null || p.test( v ) ) {
+                    actions[i].accept( v );
+                }
+            }
+        }
+    }
+}
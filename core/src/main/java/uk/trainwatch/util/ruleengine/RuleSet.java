@@ -16,13 +16,13 @@
 package uk.trainwatch.util.ruleengine;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
-import uk.trainwatch.util.Consumers;
 
 /**
  * A collection of Rule's
@@ -42,6 +42,11 @@ public class RuleSet<T>
 
     private final Class<T> clazz;
 
+    /**
+     * The RuleBook this set is part of, told when a rule changes so it can recompile
+     */
+    private transient volatile RuleBook ruleBook;
+
     /**
      * Create a RuleSet for a specific class
      *
@@ -58,6 +63,27 @@ public class RuleSet<T>
         this.rules = Objects.requireNonNull( rules );
     }
 
+    void setRuleBook( RuleBook ruleBook )
+    {
+        this.ruleBook = ruleBook;
+    }
+
+    private void changed()
+    {
+        RuleBook b = ruleBook;
+        if( b != null ) {
+            b.changed();
+        }
+    }
+
+    /**
+     * The rules, used by {@link RuleEvaluator}
+     */
+    Collection<Consumer<T>> rules()
+    {
+        return rules.values();
+    }
+
     /**
      * The class this rule set applies to
      *
@@ -91,7 +117,11 @@ public class RuleSet<T>
     public boolean addRule( String n, Consumer<T> rule )
     {
         Objects.requireNonNull( n, "Rule name" );
-        return rules.putIfAbsent( n.toLowerCase(), rule ) == null;
+        if( rules.putIfAbsent( n.toLowerCase(), rule ) == null ) {
+            changed();
+            return true;
+        }
+        return false;
     }
 
     /**
@@ -103,6 +133,7 @@ public class RuleSet<T>
     {
         Objects.requireNonNull( n, "Rule name" );
         rules.put( n.toLowerCase(), rule );
+        changed();
         return this;
     }
 
@@ -118,7 +149,7 @@ public class RuleSet<T>
         Objects.requireNonNull( n );
         Objects.requireNonNull( p );
         Objects.requireNonNull( c );
-        setRule( n, Consumers.ifThen( p, c ) );
+        setRule( n, new Rule<>( p, c ) );
         return this;
     }
 
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import uk.trainwatch.util.counter.MetricsRegistry;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class BatchingConsumerTest
+{
+
+    @Test
+    public void full()
+    {
+        List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+        try( BatchingConsumer<Integer> c = Consumers.batch( 10, Duration.ofMinutes( 1 ), batches::add ) ) {
+            for( int i = 0; i < 25; i++ ) {
+                c.accept( i );
+            }
+            assertEquals( 2, batches.size() );
+            assertEquals( 5, c.getBuffered() );
+        }
+
+        // close flushes the remainder
+        assertEquals( 3, batches.size() );
+        assertEquals( 10, batches.get( 0 ).size() );
+        assertEquals( 10, batches.get( 1 ).size() );
+        assertEquals( 5, batches.get( 2 ).size() );
+
+        List<Integer> all = new ArrayList<>();
+        batches.forEach( all::addAll );
+        for( int i = 0; i < 25; i++ ) {
+            assertEquals( i, (int) all.get( i ) );
+        }
+    }
+
+    @Test
+    public void delay()
+            throws Exception
+    {
+        CountDownLatch latch = new CountDownLatch( 1 );
+        List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+        BatchingConsumer<Integer> c = Consumers.batch( 100, Duration.ofMillis( 50 ), b -> {
+                                                   batches.add( b );
+                                                   latch.countDown();
+                                               } );
+        long start = System.nanoTime();
+        c.accept( 1 );
+        c.accept( 2 );
+        assertTrue( latch.await( 5, TimeUnit.SECONDS ) );
+        assertTrue( System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos( 50 ) );
+
+        assertEquals( 1, batches.size() );
+        assertEquals( 2, batches.get( 0 ).size() );
+
+        // Nothing left to flush. Closing also waits for the sink to complete so the metrics are recorded
+        c.close();
+        assertEquals( 1, batches.size() );
+        assertEquals( 1L, c.getBatchSize().getTotal().getCount() );
+        assertEquals( 2L, c.getBatchSize().getTotal().getSum() );
+    }
+
+    @Test
+    public void concurrent()
+            throws Exception
+    {
+        List<Integer> all = new CopyOnWriteArrayList<>();
+        BatchingConsumer<Integer> c = Consumers.batch( 7, Duration.ofMillis( 5 ), all::addAll );
+        Thread[] threads = new Thread[4];
+        for( int t = 0; t < threads.length; t++ ) {
+            threads[t] = new Thread( () -> {
+                for( int i = 0; i < 1000; i++ ) {
+                    c.accept( i );
+                }
+            } );
+            threads[t].start();
+        }
+        for( Thread t: threads ) {
+            t.join();
+        }
+        c.close();
+        assertEquals( 4000, all.size() );
+    }
+
+    @Test
+    public void slowSinkDoesNotBlockScheduler()
+            throws Exception
+    {
+        // More blocked sinks than the scheduler has threads
+        CountDownLatch started = new CountDownLatch( 5 );
+        CountDownLatch release = new CountDownLatch( 1 );
+        List<BatchingConsumer<Integer>> consumers = new ArrayList<>();
+        for( int i = 0; i < 5; i++ ) {
+            BatchingConsumer<Integer> c = Consumers.batch( 100, Duration.ofMillis( 10 ), b -> {
+                                                       started.countDown();
+                                                       try {
+                                                           release.await();
+                                                       }
+                                                       catch( InterruptedException ex ) {
+                                                           Thread.currentThread().interrupt();
+                                                       }
+                                                   } );
+            consumers.add( c );
+            c.accept( i );
+        }
+
+        try {
+            assertTrue( started.await( 5, TimeUnit.SECONDS ) );
+            assertTrue( DaemonThreadFactory.INSTANCE.schedule( () -> true, 1, TimeUnit.MILLISECONDS ).
+                    get( 5, TimeUnit.SECONDS ) );
+        }
+        finally {
+            release.countDown();
+            consumers.forEach( BatchingConsumer::close );
+        }
+    }
+
+    @Test
+    public void closeCancelsMetrics()
+    {
+        BatchingConsumer<Integer> c = Consumers.batch( "test.batch", 10, Duration.ofMinutes( 1 ), b -> {
+                                                   } );
+        Set<MetricsRegistry.Tickable> registered = new HashSet<>();
+        MetricsRegistry.INSTANCE.forEach( registered::add );
+        assertTrue( registered.contains( c.getBatchSize() ) );
+        assertTrue( registered.contains( c.getLatency() ) );
+
+        c.accept( 1 );
+        c.close();
+        assertEquals( 1L, c.getBatchSize().getTotal().getCount() );
+
+        registered.clear();
+        MetricsRegistry.INSTANCE.forEach( registered::add );
+        assertFalse( registered.contains( c.getBatchSize() ) );
+        assertFalse( registered.contains( c.getLatency() ) );
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util;
+
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.StreamSupport;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class BlockingSupplierSpliteratorTest
+{
+
+    @Test
+    public void split()
+    {
+        RingBuffer<Integer> r = new RingBuffer<>( 128 );
+        for( int i = 0; i < 10; i++ ) {
+            r.accept( i );
+        }
+
+        BlockingSupplierSpliterator<Integer> s = new BlockingSupplierSpliterator<>( r, 3 );
+        assertEquals( Long.MAX_VALUE, s.estimateSize() );
+
+        // Three leaves in total however they are split
+        Spliterator<Integer> a = s.trySplit();
+        Spliterator<Integer> b = a.trySplit();
+        assertNotNull( b );
+        assertNull( s.trySplit() );
+        assertNull( a.trySplit() );
+        assertNull( b.trySplit() );
+        assertEquals( Long.MAX_VALUE, b.estimateSize() );
+
+        // Each takes from the supplier
+        int next = 0;
+        for( Spliterator<Integer> leaf: new Spliterator[]{s, a, b, s, b} ) {
+            int v = next++;
+            assertTrue( leaf.tryAdvance( x -> assertEquals( v, (int) x ) ) );
+        }
+    }
+
+    @Test
+    public void boundedTasks()
+            throws Exception
+    {
+        // Values trickling in one at a time used to fork a task per value which was never released
+        RingBuffer<Integer> r = new RingBuffer<>( 4 );
+        BlockingSupplierSpliterator<Integer> spliterator = new BlockingSupplierSpliterator<>( r );
+        int leaves = ForkJoinPool.getCommonPoolParallelism() + 1;
+
+        LongAdder sum = new LongAdder();
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        CountDownLatch latch = new CountDownLatch( 20000 );
+        Thread t = new Thread( () -> StreamSupport.stream( spliterator, true ).
+                forEach( v -> {
+                    threads.add( Thread.currentThread() );
+                    sum.add( v );
+                    latch.countDown();
+                } ) );
+        t.setDaemon( true );
+        t.start();
+
+        for( int i = 1; i <= 20000; i++ ) {
+            r.accept( i );
+        }
+        assertTrue( latch.await( 10, TimeUnit.SECONDS ) );
+        assertEquals( 200010000L, sum.sum() );
+
+        // Split once per leaf, each leaf staying on it's own thread, rather than once per value
+        assertEquals( 0, spliterator.getSplitsRemaining() );
+        assertNull( spliterator.trySplit() );
+        assertTrue( threads.size() + " threads", threads.size() <= leaves );
+    }
+
+    @Test
+    public void parallel()
+            throws Exception
+    {
+        LongAdder sum = new LongAdder();
+        CountDownLatch latch = new CountDownLatch( 10000 );
+        Consumer<Integer> c = Streams.consumerStream( s -> s.parallel().forEach( v -> {
+                                                                                sum.add( v );
+                                                                                latch.countDown();
+                                                                            } ) );
+        for( int i = 1; i <= 10000; i++ ) {
+            c.accept( i );
+        }
+        assertTrue( latch.await( 10, TimeUnit.SECONDS ) );
+        assertEquals( 50005000L, sum.sum() );
+    }
+}
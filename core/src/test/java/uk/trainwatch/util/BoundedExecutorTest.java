@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class BoundedExecutorTest
+{
+
+    private static Runnable await( CountDownLatch started, CountDownLatch release )
+    {
+        return () -> {
+            started.countDown();
+            try {
+                release.await( 5, TimeUnit.SECONDS );
+            }
+            catch( InterruptedException ex ) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    @Test
+    public void growsBeforeQueueing()
+            throws Exception
+    {
+        BoundedExecutor e = new BoundedExecutor( 1, 4, 10, WorkerPool.FullPolicy.DROP, 0, TimeUnit.SECONDS,
+                                                 DaemonThreadFactory.INSTANCE );
+        CountDownLatch started = new CountDownLatch( 4 );
+        CountDownLatch release = new CountDownLatch( 1 );
+        for( int i = 0; i < 4; i++ ) {
+            e.execute( await( started, release ) );
+        }
+        assertTrue( started.await( 5, TimeUnit.SECONDS ) );
+        assertEquals( 4, e.getPoolSize() );
+        assertEquals( 4, e.getActiveCount() );
+        assertEquals( 0, e.getQueued() );
+
+        // Now at max threads so tasks are queued then dropped
+        for( int i = 0; i < 12; i++ ) {
+            e.execute( () -> {
+            } );
+        }
+        assertEquals( 10, e.getQueued() );
+        assertEquals( 2L, e.getRejected() );
+
+        release.countDown();
+        e.shutdown();
+        assertTrue( e.awaitTermination( 5, TimeUnit.SECONDS ) );
+        assertEquals( 14L, e.getCompletedTaskCount() );
+        assertEquals( 0, e.getSubmitted() );
+    }
+
+    @Test
+    public void reusesIdleThreads()
+            throws Exception
+    {
+        BoundedExecutor e = new BoundedExecutor( 2, 8, 100, DaemonThreadFactory.INSTANCE );
+        AtomicInteger count = new AtomicInteger();
+        for( int i = 0; i < 100; i++ ) {
+            CountDownLatch done = new CountDownLatch( 1 );
+            e.execute( () -> {
+                count.incrementAndGet();
+                done.countDown();
+            } );
+            assertTrue( done.await( 5, TimeUnit.SECONDS ) );
+            // The task counts as submitted until afterExecute
+            while( e.getSubmitted() > 0 ) {
+                Thread.yield();
+            }
+        }
+        e.shutdown();
+        assertTrue( e.awaitTermination( 5, TimeUnit.SECONDS ) );
+        assertEquals( 100, count.get() );
+        assertEquals( 2, e.getLargestPoolSize() );
+    }
+
+    @Test
+    public void callerRuns()
+            throws Exception
+    {
+        BoundedExecutor e = new BoundedExecutor( 1, 1, 1, WorkerPool.FullPolicy.CALLER_RUNS, 0, TimeUnit.SECONDS,
+                                                 DaemonThreadFactory.INSTANCE );
+        CountDownLatch started = new CountDownLatch( 1 );
+        CountDownLatch release = new CountDownLatch( 1 );
+        e.execute( await( started, release ) );
+        assertTrue( started.await( 5, TimeUnit.SECONDS ) );
+
+        e.execute( () -> {
+        } );
+        Thread[] ran = new Thread[1];
+        e.execute( () -> ran[0] = Thread.currentThread() );
+        assertSame( Thread.currentThread(), ran[0] );
+        assertEquals( 1L, e.getCallerRuns() );
+
+        release.countDown();
+        e.shutdown();
+        assertTrue( e.awaitTermination( 5, TimeUnit.SECONDS ) );
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void shutdown()
+    {
+        BoundedExecutor e = new BoundedExecutor( 1, 1, 1, DaemonThreadFactory.INSTANCE );
+        e.shutdown();
+        e.execute( () -> {
+        } );
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class ClassRouterTest
+{
+
+    @Test
+    public void exactClass()
+    {
+        List<String> seen = new ArrayList<>();
+        ClassRouter<Object> r = Router.createClassRouter();
+        r.add( String.class, v -> seen.add( "string " + v ) )
+                .add( Integer.class, v -> seen.add( "int " + v ) )
+                .setSink( v -> seen.add( "sink " + v ) );
+
+        r.accept( "a" );
+        r.accept( 1 );
+        r.accept( 1.5 );
+        r.accept( null );
+        assertEquals( "[string a, int 1, sink 1.5]", seen.toString() );
+    }
+
+    @Test
+    public void supertypes()
+    {
+        List<String> seen = new ArrayList<>();
+        ClassRouter<Object> r = Router.createClassRouter();
+        r.add( Number.class, v -> seen.add( "number" ) )
+                .add( CharSequence.class, v -> seen.add( "chars" ) )
+                .add( Object.class, v -> seen.add( "object" ) );
+
+        r.accept( 1 );
+        r.accept( 2L );
+        r.accept( new StringBuilder() );
+        r.accept( "a" );
+        r.accept( new Object() );
+        assertEquals( "[number, number, chars, chars, object]", seen.toString() );
+
+        // A nearer route takes precedence
+        r.add( Long.class, v -> seen.add( "long" ) );
+        seen.clear();
+        r.accept( 1 );
+        r.accept( 2L );
+        assertEquals( "[number, long]", seen.toString() );
+    }
+
+    @Test
+    public void merge()
+    {
+        List<String> seen = new ArrayList<>();
+        ClassRouter<Object> r = Router.createClassRouter();
+        r.add( String.class, v -> seen.add( "a" ) )
+                .add( String.class, v -> seen.add( "b" ) )
+                .add( String.class, v -> seen.add( "c" ) );
+        r.accept( "x" );
+        assertEquals( "[a, b, c]", seen.toString() );
+
+        assertTrue( r.isRouted( String.class ) );
+        assertFalse( r.isSinked( String.class ) );
+        r.sink( Integer.class );
+        assertTrue( r.isSinked( Integer.class ) );
+        r.accept( 1 );
+        assertEquals( 3, seen.size() );
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class PartitionedExecutorTest
+{
+
+    @Test
+    public void orderedPerKey()
+    {
+        Map<Integer, List<Integer>> seen = new ConcurrentHashMap<>();
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        try( PartitionedExecutor<int[], Integer> e = Consumers.partitioned( v -> v[0], 4, v -> {
+                                                                          threads.add( Thread.currentThread() );
+                                                                          seen.computeIfAbsent( v[0], k -> new CopyOnWriteArrayList<>() )
+                                                                                  .add( v[1] );
+                                                                      } ) ) {
+            for( int i = 0; i < 1000; i++ ) {
+                for( int k = 0; k < 16; k++ ) {
+                    e.accept( new int[]{k, i} );
+                }
+            }
+        }
+
+        assertEquals( 16, seen.size() );
+        seen.forEach( ( k, l ) -> {
+            assertEquals( 1000, l.size() );
+            for( int i = 0; i < 1000; i++ ) {
+                assertEquals( i, (int) l.get( i ) );
+            }
+        } );
+        assertEquals( 4, threads.size() );
+    }
+
+    @Test
+    public void lanes()
+    {
+        try( PartitionedExecutor<Integer, Integer> e = Consumers.partitioned( v -> v, 8, v -> {
+                                                                        } ) ) {
+            assertEquals( 0, e.getLane( null ) );
+            for( int i = -100; i < 100; i++ ) {
+                int l = e.getLane( i );
+                assertTrue( l >= 0 && l < 8 );
+                assertEquals( l, e.getLane( i ) );
+            }
+        }
+    }
+
+    @Test
+    public void depthAndDrop()
+            throws Exception
+    {
+        CountDownLatch started = new CountDownLatch( 1 );
+        CountDownLatch release = new CountDownLatch( 1 );
+        PartitionedExecutor<Integer, Integer> e = Consumers.partitioned( "test.partitioned", v -> 0, 2, 3,
+                                                                         WorkerPool.FullPolicy.DROP, v -> {
+                                                                             if( v == 0 ) {
+                                                                                 started.countDown();
+                                                                                 try {
+                                                                                     release.await( 5, TimeUnit.SECONDS );
+                                                                                 }
+                                                                                 catch( InterruptedException ex ) {
+                                                                                     Thread.currentThread().interrupt();
+                                                                                 }
+                                                                             }
+                                                                         } );
+        int lane = e.getLane( 0 );
+
+        // Block the lane then overfill it's queue
+        e.accept( 0 );
+        assertTrue( started.await( 5, TimeUnit.SECONDS ) );
+        for( int i = 1; i <= 5; i++ ) {
+            e.accept( i );
+        }
+        assertEquals( 3, e.getDepth( lane ) );
+        assertEquals( 0, e.getDepth( 1 - lane ) );
+        assertEquals( 2L, e.getDropped() );
+
+        e.secondTick();
+        assertEquals( 3L, e.getDepthHistogram( lane ).getTotal().getMax() );
+
+        release.countDown();
+        e.close();
+        assertEquals( 4L, e.getProcessed() );
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class RingBufferTest
+{
+
+    @Test
+    public void capacity()
+    {
+        assertEquals( 2, new RingBuffer<>( 1 ).getCapacity() );
+        assertEquals( 2, new RingBuffer<>( 2 ).getCapacity() );
+        assertEquals( 16, new RingBuffer<>( 10 ).getCapacity() );
+        assertEquals( 1024, new RingBuffer<>().getCapacity() );
+    }
+
+    @Test
+    public void fifo()
+    {
+        RingBuffer<Integer> r = new RingBuffer<>( 4, RingBuffer.ProducerType.SINGLE, RingBuffer.WaitStrategy.BUSY_SPIN );
+        assertNull( r.poll() );
+
+        // Go round the ring a few times
+        for( int n = 0; n < 10; n++ ) {
+            for( int i = 0; i < 4; i++ ) {
+                assertTrue( r.offer( n * 4 + i ) );
+            }
+            assertFalse( r.offer( -1 ) );
+            assertEquals( 4, r.size() );
+            for( int i = 0; i < 4; i++ ) {
+                assertEquals( n * 4 + i, (int) r.get() );
+            }
+            assertTrue( r.isEmpty() );
+        }
+    }
+
+    @Test
+    public void concurrent()
+            throws Exception
+    {
+        for( RingBuffer.WaitStrategy strategy: RingBuffer.WaitStrategy.values() ) {
+            RingBuffer<Long> r = new RingBuffer<>( 64, RingBuffer.ProducerType.MULTI, strategy );
+            int producers = 3;
+            int consumers = 2;
+            long perProducer = 20000;
+            long total = producers * perProducer;
+
+            LongAdder sum = new LongAdder();
+            AtomicLong remaining = new AtomicLong( total );
+            CountDownLatch done = new CountDownLatch( producers + consumers );
+
+            for( int p = 0; p < producers; p++ ) {
+                new Thread( () -> {
+                    for( long i = 1; i <= perProducer; i++ ) {
+                        r.accept( i );
+                    }
+                    done.countDown();
+                } ).start();
+            }
+            for( int c = 0; c < consumers; c++ ) {
+                new Thread( () -> {
+                    while( remaining.getAndDecrement() > 0 ) {
+                        sum.add( r.get() );
+                    }
+                    done.countDown();
+                } ).start();
+            }
+
+            assertTrue( strategy.name(), done.await( 30, TimeUnit.SECONDS ) );
+            assertEquals( strategy.name(), producers * perProducer * (perProducer + 1) / 2, sum.sum() );
+            assertTrue( r.isEmpty() );
+        }
+    }
+
+    @Test
+    public void consumerStream()
+            throws Exception
+    {
+        LongAdder sum = new LongAdder();
+        CountDownLatch latch = new CountDownLatch( 1000 );
+        Consumer<Integer> c = Streams.consumerStream( s -> s.forEach( v -> {
+                                                                     sum.add( v );
+                                                                     latch.countDown();
+                                                                 } ) );
+        for( int i = 1; i <= 1000; i++ ) {
+            c.accept( i );
+        }
+        assertTrue( latch.await( 10, TimeUnit.SECONDS ) );
+        assertEquals( 500500L, sum.sum() );
+    }
+
+    @Test
+    public void parkedConsumerIsWoken()
+            throws Exception
+    {
+        RingBuffer<Integer> r = new RingBuffer<>( 16 );
+        BlockingQueue<Integer> received = new LinkedBlockingQueue<>();
+        Thread consumer = new Thread( () -> {
+            while( true ) {
+                int v = r.get();
+                if( v < 0 ) {
+                    return;
+                }
+                received.add( v );
+            }
+        } );
+        consumer.start();
+
+        // Each time the consumer has been idle long enough to be parked
+        for( int i = 0; i < 3; i++ ) {
+            awaitParked( consumer );
+            r.accept( i );
+            assertEquals( Integer.valueOf( i ), received.poll( 10, TimeUnit.SECONDS ) );
+        }
+
+        r.accept( -1 );
+        consumer.join( 10000 );
+        assertFalse( consumer.isAlive() );
+    }
+
+    @Test
+    public void parkedProducerIsWoken()
+            throws Exception
+    {
+        RingBuffer<Integer> r = new RingBuffer<>( 1 );
+        r.accept( 1 );
+        r.accept( 2 );
+        assertFalse( r.offer( 3 ) );
+
+        CountDownLatch done = new CountDownLatch( 1 );
+        Thread producer = new Thread( () -> {
+            r.accept( 3 );
+            done.countDown();
+        } );
+        producer.start();
+
+        awaitParked( producer );
+        assertEquals( 1, (int) r.poll() );
+        assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+        assertEquals( 2, (int) r.poll() );
+        assertEquals( 3, (int) r.poll() );
+    }
+
+    /**
+     * Wait until a thread is parked waiting on a RingBuffer
+     */
+    private static void awaitParked( Thread t )
+            throws InterruptedException
+    {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos( 10 );
+        while( t.getState() != Thread.State.TIMED_WAITING ) {
+            assertTrue( "Thread not parked", System.nanoTime() < end );
+            Thread.sleep( 1 );
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void invalid()
+    {
+        RingBuffer<Integer> r = new RingBuffer<>( 1 );
+        r.setInvalid();
+        r.accept( 1 );
+    }
+}
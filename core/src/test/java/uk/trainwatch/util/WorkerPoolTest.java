@@ -0,0 +1,185 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class WorkerPoolTest
+{
+
+    @Test
+    public void ordered()
+    {
+        List<Integer> seen = new CopyOnWriteArrayList<>();
+        try( WorkerPool<Integer> pool = Streams.fork( 100, 1, WorkerPool.FullPolicy.BLOCK, seen::add ) ) {
+            for( int i = 0; i < 1000; i++ ) {
+                pool.accept( i );
+            }
+        }
+
+        // close waits for everything queued
+        assertEquals( 1000, seen.size() );
+        for( int i = 0; i < 1000; i++ ) {
+            assertEquals( i, (int) seen.get( i ) );
+        }
+    }
+
+    @Test
+    public void parallel()
+            throws Exception
+    {
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        CountDownLatch latch = new CountDownLatch( 4 );
+        AtomicInteger count = new AtomicInteger();
+        try( WorkerPool<Integer> pool = Streams.fork( 100, 4, WorkerPool.FullPolicy.BLOCK, v -> {
+                                                  if( threads.add( Thread.currentThread() ) ) {
+                                                      latch.countDown();
+                                                      try {
+                                                          // Hold this worker until all 4 are busy
+                                                          latch.await( 5, TimeUnit.SECONDS );
+                                                      }
+                                                      catch( InterruptedException ex ) {
+                                                          Thread.currentThread().interrupt();
+                                                      }
+                                                  }
+                                                  count.incrementAndGet();
+                                              } ) ) {
+            for( int i = 0; i < 100; i++ ) {
+                pool.accept( i );
+            }
+            assertTrue( latch.await( 5, TimeUnit.SECONDS ) );
+        }
+        assertEquals( 4, threads.size() );
+        assertEquals( 100, count.get() );
+    }
+
+    @Test
+    public void dropAndCallerRuns()
+            throws Exception
+    {
+        for( WorkerPool.FullPolicy policy: new WorkerPool.FullPolicy[]{WorkerPool.FullPolicy.DROP, WorkerPool.FullPolicy.CALLER_RUNS} ) {
+            Set<Thread> threads = ConcurrentHashMap.newKeySet();
+            CountDownLatch started = new CountDownLatch( 1 );
+            CountDownLatch release = new CountDownLatch( 1 );
+            WorkerPool<Integer> pool = Streams.fork( 2, 1, policy, v -> {
+                                                 threads.add( Thread.currentThread() );
+                                                 if( v == 0 ) {
+                                                     started.countDown();
+                                                     try {
+                                                         release.await( 5, TimeUnit.SECONDS );
+                                                     }
+                                                     catch( InterruptedException ex ) {
+                                                         Thread.currentThread().interrupt();
+                                                     }
+                                                 }
+                                             } );
+            // Block the worker then fill the queue
+            pool.accept( 0 );
+            assertTrue( started.await( 5, TimeUnit.SECONDS ) );
+            pool.accept( 1 );
+            pool.accept( 2 );
+            pool.accept( 3 );
+            pool.accept( 4 );
+
+            if( policy == WorkerPool.FullPolicy.DROP ) {
+                assertEquals( 2L, pool.getDropped() );
+                release.countDown();
+                pool.close();
+                assertEquals( 3L, pool.getProcessed() );
+            }
+            else {
+                assertEquals( 2L, pool.getCallerRuns() );
+                assertTrue( threads.contains( Thread.currentThread() ) );
+                release.countDown();
+                pool.close();
+                assertEquals( 5L, pool.getProcessed() );
+            }
+        }
+    }
+
+    @Test
+    public void closeWithBlockedProducer()
+            throws Exception
+    {
+        // A direct hand off, the default for Streams.fork(c)
+        for( int size: new int[]{1, 2} ) {
+            CountDownLatch started = new CountDownLatch( 1 );
+            CountDownLatch release = new CountDownLatch( 1 );
+            List<Integer> seen = new CopyOnWriteArrayList<>();
+            WorkerPool<Integer> pool = new WorkerPool<>( size, 1, v -> {
+                                                     if( v == 0 ) {
+                                                         started.countDown();
+                                                         try {
+                                                             release.await( 5, TimeUnit.SECONDS );
+                                                         }
+                                                         catch( InterruptedException ex ) {
+                                                             Thread.currentThread().interrupt();
+                                                         }
+                                                     }
+                                                     seen.add( v );
+                                                 } );
+            pool.accept( 0 );
+            assertTrue( started.await( 5, TimeUnit.SECONDS ) );
+
+            // Fill the queue, if there is one, then block a producer on it
+            int fill = size > 1 ? size : 0;
+            CountDownLatch offered = new CountDownLatch( 1 );
+            Thread producer = new Thread( () -> {
+                for( int i = 1; i <= fill; i++ ) {
+                    pool.accept( i );
+                }
+                offered.countDown();
+                pool.accept( fill + 1 );
+            } );
+            producer.start();
+            assertTrue( offered.await( 5, TimeUnit.SECONDS ) );
+            while( producer.getState() != Thread.State.TIMED_WAITING ) {
+                Thread.sleep( 1 );
+            }
+
+            Thread closer = new Thread( pool::close );
+            closer.start();
+            release.countDown();
+
+            closer.join( 10000 );
+            assertFalse( "close hung with size " + size, closer.isAlive() );
+            producer.join( 10000 );
+            assertFalse( producer.isAlive() );
+            assertEquals( fill + 2, seen.size() );
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closed()
+    {
+        WorkerPool<Integer> pool = Streams.fork( 10, 1, WorkerPool.FullPolicy.BLOCK, v -> {
+                                         } );
+        pool.close();
+        pool.accept( 1 );
+    }
+}
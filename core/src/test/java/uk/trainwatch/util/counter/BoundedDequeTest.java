@@ -0,0 +1,67 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.counter;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class BoundedDequeTest
+{
+
+    @Test
+    public void initial()
+    {
+        BoundedDeque d = new BoundedDeque( 10 );
+        assertEquals( 1, d.size() );
+        assertEquals( 0, d.getMin() );
+        assertEquals( 0, d.getMax() );
+        assertEquals( 0L, d.getSum() );
+    }
+
+    @Test
+    public void window()
+    {
+        Random r = new Random( 42 );
+        BoundedDeque d = new BoundedDeque( 7 );
+        Deque<Integer> expected = new ArrayDeque<>();
+        expected.add( 0 );
+
+        for( int i = 0; i < 1000; i++ ) {
+            int v = r.nextInt( 200 ) - 100;
+            d.accept( v );
+            expected.addLast( v );
+            if( expected.size() > 7 ) {
+                expected.removeFirst();
+            }
+
+            assertEquals( expected.size(), d.size() );
+            assertEquals( (int) expected.stream().reduce( Math::min ).get(), d.getMin() );
+            assertEquals( (int) expected.stream().reduce( Math::max ).get(), d.getMax() );
+            assertEquals( expected.stream().mapToLong( Integer::longValue ).sum(), d.getSum() );
+            assertEquals( v, d.getLastValue() );
+        }
+
+        assertEquals( expected.toString().replace( " ", "" ), d.toArray().build().toString() );
+        assertEquals( (int) expected.stream().reduce( Integer::sum ).get(), d.get( Integer::sum ) );
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.counter;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class HistogramTest
+{
+
+    @Test
+    public void buckets()
+    {
+        for( long v: new long[]{0, 1, 31, 32, 33, 100, 1000, 123456789L, Long.MAX_VALUE} ) {
+            int i = Histogram.index( v, 5 );
+            assertTrue( v + " below bucket", Histogram.lowestValue( i, 5 ) <= v );
+            assertTrue( v + " above bucket", Histogram.highestValue( i, 5 ) >= v );
+        }
+    }
+
+    @Test
+    public void percentiles()
+    {
+        Histogram h = new Histogram();
+        for( int i = 1; i <= 1000; i++ ) {
+            h.record( i );
+        }
+
+        Histogram.Snapshot s = h.snapshot();
+        assertEquals( 1000L, s.getCount() );
+        assertEquals( 500500L, s.getSum() );
+        assertEquals( 500.0, s.getP50(), 500 * 0.04 );
+        assertEquals( 990.0, s.getP99(), 990 * 0.04 );
+        assertEquals( 1L, s.getMin() );
+
+        // Interval snapshot is now empty but the total retains everything
+        assertEquals( 0L, h.snapshot().getCount() );
+        assertEquals( 1000L, h.getTotal().getCount() );
+    }
+
+    @Test
+    public void totalDoesNotConsumeSnapshot()
+    {
+        Histogram h = new Histogram();
+        h.record( 10 );
+        h.record( 20 );
+
+        // Reading the total doesn't take values from the next interval snapshot
+        assertEquals( 2L, h.getTotal().getCount() );
+        assertEquals( 2L, h.getTotal().getCount() );
+
+        h.record( 30 );
+        Histogram.Snapshot s = h.snapshot();
+        assertEquals( 3L, s.getCount() );
+        assertEquals( 60L, s.getSum() );
+
+        h.record( 40 );
+        assertEquals( 4L, h.getTotal().getCount() );
+        assertEquals( 1L, h.snapshot().getCount() );
+        assertEquals( 0L, h.snapshot().getCount() );
+        assertEquals( 4L, h.getTotal().getCount() );
+    }
+
+    @Test
+    public void concurrent()
+            throws InterruptedException
+    {
+        Histogram h = new Histogram();
+        List<Thread> threads = new ArrayList<>();
+        for( int t = 0; t < 4; t++ ) {
+            Thread thread = new Thread( () -> {
+                for( int i = 0; i < 100000; i++ ) {
+                    h.record( i );
+                }
+            } );
+            threads.add( thread );
+            thread.start();
+        }
+
+        long count = 0;
+        for( Thread t: threads ) {
+            count += h.snapshot().getCount();
+            t.join();
+        }
+        count += h.snapshot().getCount();
+
+        assertEquals( 400000L, count );
+    }
+
+    @Test
+    public void merge()
+    {
+        Histogram a = new Histogram();
+        Histogram b = new Histogram();
+        a.record( 10 );
+        b.record( 1000 );
+
+        Histogram.Snapshot s = a.snapshot().merge( b.snapshot() );
+        assertEquals( 2L, s.getCount() );
+        assertEquals( 10L, s.getMin() );
+        assertTrue( s.getMax() >= 1000L );
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.counter;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class MeterTest
+{
+
+    /**
+     * A meter ticked only by the test. The registry may tick it once before it's cancelled, so the tests run for long
+     * enough that the initial rate no longer matters.
+     */
+    private static Meter<Object> meter()
+    {
+        Meter<Object> m = new Meter<>();
+        m.cancel();
+        return m;
+    }
+
+    @Test
+    public void steadyRate()
+    {
+        Meter<Object> m = meter();
+        // An hour of 10 events per second
+        for( int i = 0; i < 3600; i++ ) {
+            m.mark( 10 );
+            m.secondTick();
+        }
+        assertEquals( 36000L, m.getCount() );
+        assertEquals( 10.0, m.getOneMinuteRate(), 0.01 );
+        assertEquals( 10.0, m.getFiveMinuteRate(), 0.01 );
+        assertEquals( 10.0, m.getFifteenMinuteRate(), 0.2 );
+        assertEquals( 600, m.perMinute( Meter.Rate.ONE_MINUTE ).getAsInt() );
+    }
+
+    @Test
+    public void decay()
+    {
+        Meter<Object> m = meter();
+        for( int i = 0; i < 3600; i++ ) {
+            m.mark( 10 );
+            m.secondTick();
+        }
+        // A minute of nothing, the one minute rate decays by 1/e, the longer ones less so
+        for( int i = 0; i < 60; i++ ) {
+            m.secondTick();
+        }
+        assertEquals( 10.0 / Math.E, m.getOneMinuteRate(), 0.05 );
+        assertEquals( 10.0 * Math.exp( -1.0 / 5 ), m.getFiveMinuteRate(), 0.05 );
+        assertEquals( 10.0 * Math.exp( -1.0 / 15 ), m.getFifteenMinuteRate(), 0.2 );
+    }
+
+    @Test
+    public void smoothedAlarm()
+    {
+        Meter<Object> m = meter();
+        for( int i = 0; i < 3600; i++ ) {
+            m.mark( 10 );
+            m.secondTick();
+        }
+
+        BoundedDeque d = new BoundedDeque( 60 );
+        d.setLowAlarm( 300 );
+        // One quiet minute
+        d.accept( 0 );
+        assertTrue( d.isLow() );
+
+        // The five minute rate is still about 600 per minute
+        d.setAlarmSource( m.perMinute( Meter.Rate.FIVE_MINUTE ) );
+        assertFalse( d.isLow() );
+        assertEquals( 600, d.getAlarmValue(), 5 );
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.counter;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Collectors;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class MetricsExporterTest
+{
+
+    @Test
+    public void sanitize()
+    {
+        assertEquals( "feed_rate", MetricsExporter.sanitize( "feed.rate" ) );
+        assertEquals( "_lives", MetricsExporter.sanitize( "9lives" ) );
+        assertEquals( "a:b_c1", MetricsExporter.sanitize( "a:b-c1" ) );
+    }
+
+    @Test
+    public void scrape()
+    {
+        RateMonitor<String> rate = RateMonitor.log( "exporter.test.rate" );
+        Histogram latency = new Histogram();
+        MinMaxMonitor minMax = new MinMaxMonitor();
+        try {
+            rate.accept( "a" );
+            rate.accept( "b" );
+            rate.accept( "c" );
+            for( int i = 1; i <= 100; i++ ) {
+                latency.record( i );
+            }
+            minMax.accept( 5L );
+            minMax.accept( 42L );
+
+            MetricsExporter exporter = new MetricsExporter( "test" );
+            exporter.register( "exporter.test.latency", latency );
+            exporter.register( "exporter.test.range", minMax );
+
+            String s = exporter.scrape();
+            assertTrue( s, s.contains( "# TYPE exporter_test_rate counter\nexporter_test_rate_total{host=\"test\"} 3\n" ) );
+            assertTrue( s, s.contains( "# TYPE exporter_test_latency summary\n" ) );
+            assertTrue( s, s.contains( "exporter_test_latency{quantile=\"0.5\",host=\"test\"} 50\n" ) );
+            assertTrue( s, s.contains( "exporter_test_latency_count{host=\"test\"} 100\n" ) );
+            assertTrue( s, s.contains( "exporter_test_latency_sum{host=\"test\"} 5050\n" ) );
+            assertTrue( s, s.contains( "exporter_test_range_min{host=\"test\"} 5\n" ) );
+            assertTrue( s, s.contains( "exporter_test_range_max{host=\"test\"} 42\n" ) );
+            assertTrue( s, s.endsWith( "# EOF\n" ) );
+
+            // Scraping again reuses the buffer and gives the same result
+            assertEquals( s, exporter.scrape() );
+        }
+        finally {
+            rate.cancel( true );
+        }
+    }
+
+    @Test
+    public void http()
+            throws Exception
+    {
+        RateMonitor<String> rate = RateMonitor.log( "exporter.test.http" );
+        MetricsExporter exporter = new MetricsExporter( "test" );
+        try {
+            rate.accept( "a" );
+            exporter.start( new InetSocketAddress( "localhost", 0 ) );
+
+            URL url = new URL( "http://localhost:" + exporter.getAddress().getPort() + "/metrics" );
+            HttpURLConnection con = (HttpURLConnection) url.openConnection();
+            assertEquals( 200, con.getResponseCode() );
+            assertEquals( MetricsExporter.CONTENT_TYPE, con.getContentType() );
+            String body;
+            try( BufferedReader r = new BufferedReader( new InputStreamReader( con.getInputStream(), StandardCharsets.UTF_8 ) ) ) {
+                body = r.lines().collect( Collectors.joining( "\n", "", "\n" ) );
+            }
+            assertTrue( body, body.contains( "exporter_test_http_total{host=\"test\"} 1\n" ) );
+        }
+        finally {
+            exporter.stop();
+            rate.cancel( true );
+        }
+    }
+}
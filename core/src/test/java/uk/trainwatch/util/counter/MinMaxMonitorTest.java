@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.counter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class MinMaxMonitorTest
+{
+
+    private static int registered()
+    {
+        AtomicInteger n = new AtomicInteger();
+        MetricsRegistry.INSTANCE.forEach( m -> n.incrementAndGet() );
+        return n.get();
+    }
+
+    @Test
+    public void minMax()
+    {
+        MinMaxMonitor m = new MinMaxMonitor();
+        m.accept( 5L );
+        m.accept( null );
+        m.accept( -3L );
+        m.accept( 12L );
+        assertEquals( -3L, m.getMin() );
+        assertEquals( 12L, m.getThenResetMax() );
+        assertEquals( Long.MIN_VALUE, m.getMax() );
+
+        // Nothing registered so nothing to cancel
+        m.cancel();
+    }
+
+    @Test
+    public void cancel()
+    {
+        int before = registered();
+        MinMaxMonitor m = new MinMaxMonitor( v -> {
+        }, v -> {
+        } );
+        assertEquals( before + 1, registered() );
+
+        m.cancel();
+        assertEquals( before, registered() );
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.counter;
+
+import java.util.function.Consumer;
+import org.junit.Test;
+import uk.trainwatch.util.Consumers;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class PipelineMonitorTest
+{
+
+    private static void spin( long nanos )
+    {
+        long end = System.nanoTime() + nanos;
+        while( System.nanoTime() < end ) {
+            // busy
+        }
+    }
+
+    @Test
+    public void topology()
+    {
+        Consumer<Integer> slow = Consumers.instrument( "pmt.slow", v -> spin( 2000000L ) );
+        Consumer<Integer> fast = Consumers.instrument( "pmt.fast", v -> {
+                                               } );
+        Consumer<Integer> root = Consumers.instrument( "pmt.root", Consumers.andThen( slow, fast ) );
+
+        for( int i = 0; i < 10; i++ ) {
+            root.accept( i );
+        }
+
+        PipelineMonitor.Stage r = PipelineMonitor.INSTANCE.getStage( "pmt.root" );
+        PipelineMonitor.Stage s = PipelineMonitor.INSTANCE.getStage( "pmt.slow" );
+        PipelineMonitor.Stage f = PipelineMonitor.INSTANCE.getStage( "pmt.fast" );
+
+        assertEquals( 10L, r.getCount() );
+        assertEquals( 10L, s.getCount() );
+        assertEquals( 10L, f.getCount() );
+        assertTrue( r.getChildren().contains( s ) );
+        assertTrue( r.getChildren().contains( f ) );
+
+        // Nearly all of root's time is spent in slow
+        assertTrue( r.getTotalNanos() >= s.getTotalNanos() );
+        assertTrue( r.getSelfNanos() < s.getSelfNanos() );
+        assertEquals( 10L, r.getLatency().getTotal().getCount() );
+
+        String t = PipelineMonitor.INSTANCE.getTopology();
+        assertTrue( t, t.contains( "pmt.root count=10" ) );
+        assertTrue( t, t.contains( "\n  pmt.slow count=10" ) );
+        assertFalse( t, t.startsWith( "pmt.slow" ) );
+    }
+
+    @Test
+    public void errors()
+    {
+        Consumer<Integer> c = Consumers.instrument( "pmt.errors", v -> {
+                                                if( v % 2 == 0 ) {
+                                                    throw new IllegalArgumentException();
+                                                }
+                                            } );
+        int thrown = 0;
+        for( int i = 0; i < 10; i++ ) {
+            try {
+                c.accept( i );
+            }
+            catch( IllegalArgumentException ex ) {
+                thrown++;
+            }
+        }
+        assertEquals( 5, thrown );
+
+        PipelineMonitor.Stage s = PipelineMonitor.INSTANCE.getStage( "pmt.errors" );
+        assertEquals( 10L, s.getCount() );
+        assertEquals( 5L, s.getErrors() );
+    }
+}
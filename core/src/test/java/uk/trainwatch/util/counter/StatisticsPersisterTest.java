@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.counter;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class StatisticsPersisterTest
+{
+
+    /**
+     * A DataSource that fails the first {@code failures} connections then counts rows committed
+     */
+    private static class MockDataSource
+    {
+
+        private final AtomicInteger failures;
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicInteger committed = new AtomicInteger();
+
+        MockDataSource( int failures )
+        {
+            this.failures = new AtomicInteger( failures );
+        }
+
+        DataSource getDataSource()
+        {
+            return (DataSource) Proxy.newProxyInstance( getClass().getClassLoader(), new Class<?>[]{DataSource.class}, ( p, m, a ) -> {
+                                                    if( "getConnection".equals( m.getName() ) ) {
+                                                        if( failures.getAndDecrement() > 0 ) {
+                                                            throw new SQLException( "unavailable" );
+                                                        }
+                                                        return connection();
+                                                    }
+                                                    throw new UnsupportedOperationException( m.getName() );
+                                                } );
+        }
+
+        private Connection connection()
+        {
+            PreparedStatement ps = (PreparedStatement) Proxy.newProxyInstance( getClass().getClassLoader(), new Class<?>[]{PreparedStatement.class}, ( p, m, a ) -> {
+                                                                   switch( m.getName() ) {
+                                                                       case "addBatch":
+                                                                           pending.incrementAndGet();
+                                                                           return null;
+                                                                       case "executeBatch":
+                                                                           return new int[0];
+                                                                       default:
+                                                                           return null;
+                                                                   }
+                                                               } );
+            return (Connection) Proxy.newProxyInstance( getClass().getClassLoader(), new Class<?>[]{Connection.class}, ( p, m, a ) -> {
+                                                    switch( m.getName() ) {
+                                                        case "prepareStatement":
+                                                            return ps;
+                                                        case "getAutoCommit":
+                                                            return true;
+                                                        case "commit":
+                                                            committed.addAndGet( pending.getAndSet( 0 ) );
+                                                            return null;
+                                                        case "rollback":
+                                                            pending.set( 0 );
+                                                            return null;
+                                                        default:
+                                                            return null;
+                                                    }
+                                                } );
+        }
+    }
+
+    @Test
+    public void dropWhenFull()
+    {
+        StatisticsPersister p = new StatisticsPersister( new MockDataSource( 0 ).getDataSource(), "test", 2, 10 );
+        assertTrue( p.offer( "a", 1 ) );
+        assertTrue( p.offer( "b", 2 ) );
+        assertFalse( p.offer( "c", 3 ) );
+        assertEquals( 2, p.getQueued() );
+        assertEquals( 1L, p.getDropped() );
+    }
+
+    @Test
+    public void retry()
+            throws Exception
+    {
+        MockDataSource ds = new MockDataSource( 1 );
+        StatisticsPersister p = new StatisticsPersister( ds.getDataSource(), "test", 100, 10 );
+        for( int i = 0; i < 25; i++ ) {
+            p.offer( "stat" + i, i + 1 );
+        }
+        p.start();
+
+        long timeout = System.currentTimeMillis() + 10000L;
+        while( p.getWritten() < 25 && System.currentTimeMillis() < timeout ) {
+            Thread.sleep( 10 );
+        }
+        p.stop( 1, TimeUnit.SECONDS );
+
+        assertEquals( 1L, p.getFailures() );
+        assertEquals( 25L, p.getWritten() );
+        assertEquals( 25, ds.committed.get() );
+    }
+
+    @Test
+    public void flushOnStop()
+            throws Exception
+    {
+        MockDataSource ds = new MockDataSource( 0 );
+        StatisticsPersister p = new StatisticsPersister( ds.getDataSource(), "test", 100, 10 );
+        p.start();
+        for( int i = 0; i < 5; i++ ) {
+            p.offer( "stat" + i, i + 1 );
+        }
+        p.stop( 5, TimeUnit.SECONDS );
+
+        assertEquals( 0, p.getQueued() );
+        assertEquals( 5, ds.committed.get() );
+    }
+}
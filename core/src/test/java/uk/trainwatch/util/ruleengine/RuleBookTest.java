@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 peter.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package uk.trainwatch.util.ruleengine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author peter
+ */
+public class RuleBookTest
+{
+
+    @Test
+    public void predicates()
+    {
+        List<String> seen = new ArrayList<>();
+        RuleBook book = new RuleBook()
+                .setRule( String.class, "short", s -> s.length() < 3, s -> seen.add( "short " + s ) )
+                .setRule( String.class, "long", s -> s.length() >= 3, s -> seen.add( "long " + s ) );
+
+        Consumer<Object> c = book.getConsumer();
+        c.accept( "ab" );
+        c.accept( "abcd" );
+        c.accept( null );
+        c.accept( 1 );
+        assertEquals( "[short ab, long abcd]", seen.toString() );
+    }
+
+    @Test
+    public void supertypes()
+    {
+        List<String> seen = new ArrayList<>();
+        RuleBook book = new RuleBook()
+                .setRule( Integer.class, "int", v -> seen.add( "int" ) )
+                .setRule( Number.class, "number", v -> seen.add( "number" ) )
+                .setRule( Comparable.class, "comparable", v -> seen.add( "comparable" ) );
+
+        RuleEvaluator e = book.compile();
+        assertEquals( 3, e.getRuleCount( Integer.class ) );
+        assertEquals( 2, e.getRuleCount( Long.class ) );
+        assertEquals( 0, e.getRuleCount( Object.class ) );
+
+        e.accept( 1 );
+        assertEquals( "[int, number, comparable]", seen.toString() );
+
+        seen.clear();
+        e.accept( 1L );
+        e.accept( "a" );
+        assertEquals( "[number, comparable, comparable]", seen.toString() );
+    }
+
+    @Test
+    public void recompile()
+    {
+        List<String> seen = new ArrayList<>();
+        RuleBook book = new RuleBook();
+        Consumer<Object> c = book.getConsumer();
+        c.accept( "a" );
+        assertTrue( seen.isEmpty() );
+
+        RuleSet<String> set = book.createRuleSet( String.class );
+        set.setRule( "a", s -> seen.add( "a" ) );
+        c.accept( "a" );
+        assertEquals( "[a]", seen.toString() );
+
+        // An explicitly compiled evaluator doesn't change
+        RuleEvaluator e = book.compile();
+        set.setRule( "b", s -> seen.add( "b" ) );
+        seen.clear();
+        e.accept( "a" );
+        assertEquals( "[a]", seen.toString() );
+
+        // but the book's consumers see the change
+        seen.clear();
+        c.accept( "a" );
+        Collections.sort( seen );
+        assertEquals( "[a, b]", seen.toString() );
+
+        // Swap in a modified clone
+        RuleSet<String> clone = book.cloneRuleSet( String.class );
+        clone.setRule( "c", s -> seen.add( "c" ) );
+        seen.clear();
+        c.accept( "a" );
+        assertEquals( 2, seen.size() );
+        book.addRuleSet( clone );
+        seen.clear();
+        c.accept( "a" );
+        assertEquals( 3, seen.size() );
+
+        book.removeRuleSet( String.class );
+        seen.clear();
+        c.accept( "a" );
+        assertTrue( seen.isEmpty() );
+    }
+}